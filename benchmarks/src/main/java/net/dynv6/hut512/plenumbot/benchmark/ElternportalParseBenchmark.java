@@ -0,0 +1,85 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.benchmark;
+
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfo;
+import net.dynv6.hut512.plenumbot.schedule.source.ElternportalParser;
+import net.dynv6.hut512.plenumbot.schedule.source.ScheduleParseException;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the recorded Elternportal pages in {@code elternportal/}. The extract benchmarks start from an already
+ * parsed document and only measure the selectors and date parsing, the others include Jsoup's HTML parsing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ElternportalParseBenchmark {
+    private String scheduleHtml;
+    private String substitutionsHtml;
+    private Document scheduleDocument;
+    private Document substitutionsDocument;
+    private ScheduleInfo scheduleInfo;
+
+    @Setup
+    public void setup() throws ScheduleParseException {
+        scheduleHtml = ScheduleFixtures.readResource("elternportal/stundenplan.html");
+        substitutionsHtml = ScheduleFixtures.readResource("elternportal/vertretungsplan.html");
+        scheduleDocument = Jsoup.parse(scheduleHtml);
+        substitutionsDocument = Jsoup.parse(substitutionsHtml);
+        scheduleInfo = ElternportalParser.parseSchedule(scheduleDocument);
+    }
+
+    @Benchmark
+    public ScheduleInfo parseSchedule() throws ScheduleParseException {
+        return ElternportalParser.parseSchedule(Jsoup.parse(scheduleHtml));
+    }
+
+    @Benchmark
+    public ScheduleInfo extractSchedule() throws ScheduleParseException {
+        return ElternportalParser.parseSchedule(scheduleDocument);
+    }
+
+    @Benchmark
+    public ScheduleInfo parseSubstitutions() throws ScheduleParseException {
+        ScheduleInfo copy = scheduleInfo.copy();
+        ElternportalParser.insertSubstitutions(copy, Jsoup.parse(substitutionsHtml));
+        return copy;
+    }
+
+    @Benchmark
+    public ScheduleInfo extractSubstitutions() throws ScheduleParseException {
+        ScheduleInfo copy = scheduleInfo.copy();
+        ElternportalParser.insertSubstitutions(copy, substitutionsDocument);
+        return copy;
+    }
+
+    @Benchmark
+    public String extractSubstitutionsVersion() throws ScheduleParseException {
+        return ElternportalParser.parseSubstitutionsVersion(substitutionsDocument);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.dynv6.hut512.plenumbot.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A local stand-in for an Elternportal instance, serving the recorded pages in {@code elternportal/}. It mimics the
+ * login form with its csrf token and session cookie, the login redirect and the timetable and substitution pages,
+ * including {@code ETag} based conditional requests. Point {@code ELTERNPORTAL_URL} at {@link #getUrl()} to use it.
+ * <p>
+ * Every request is delayed by up to twice the configured latency and fails with a 500 at the configured failure
+ * rate. Each substitution page request changes the account's substitutions at the configured churn rate. Logins
+ * succeed for every user with the password {@value #PASSWORD}.
+ */
+public class ElternportalStandIn {
+    public static final String PASSWORD = "secret";
+
+    private static final String SESSION_COOKIE_NAME = "PHPSESSID";
+    private static final String LOGIN_FORM = "<!DOCTYPE html><html><body><form method=\"post\" action=\"/includes/project/auth/login.php\">"
+            + "<input type=\"hidden\" name=\"csrf\" value=\"%s\"><input name=\"username\"><input name=\"password\" type=\"password\">"
+            + "</form></body></html>";
+    private static final LocalDateTime LAST_EDITED = LocalDateTime.of(2023, 5, 8, 7, 12, 45);
+    private static final DateTimeFormatter LAST_EDITED_FORMATTER = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final double failureRate;
+    private final double churnRate;
+    private final String schedulePage;
+    private final String substitutionsPage;
+    private final Map<String, String> csrfTokens = new ConcurrentHashMap<>();
+    private final Map<String, String> sessions = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> versions = new ConcurrentHashMap<>();
+
+    @Getter
+    private final LongAdder requests = new LongAdder();
+    @Getter
+    private final LongAdder failures = new LongAdder();
+    @Getter
+    private final LongAdder logins = new LongAdder();
+    @Getter
+    private final LongAdder notModified = new LongAdder();
+
+    public ElternportalStandIn(int port, long latencyMillis, double failureRate, double churnRate) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        this.churnRate = churnRate;
+        this.schedulePage = ScheduleFixtures.readResource("elternportal/stundenplan.html");
+        this.substitutionsPage = ScheduleFixtures.readResource("elternportal/vertretungsplan.html");
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        // Requests sleep for the latency, so the server must not limit how many of them wait at once
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "Elternportal stand-in");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(executor);
+        this.server.createContext("/", exchange -> handle(exchange, this::loginForm));
+        this.server.createContext("/includes/project/auth/login.php", exchange -> handle(exchange, this::login));
+        this.server.createContext("/service/stundenplan", exchange -> handle(exchange, this::schedule));
+        this.server.createContext("/service/vertretungsplan", exchange -> handle(exchange, this::substitutions));
+    }
+
+    public static void main(String[] args) throws IOException {
+        Properties config = parseArguments(args);
+        ElternportalStandIn standIn = new ElternportalStandIn(Integer.parseInt(config.getProperty("port", "8080")),
+                Long.parseLong(config.getProperty("latency", "50")),
+                Double.parseDouble(config.getProperty("failureRate", "0")),
+                Double.parseDouble(config.getProperty("churn", "0.1")));
+        standIn.start();
+        System.out.println("Elternportal stand-in listening on " + standIn.getUrl());
+    }
+
+    /**
+     * Reads {@code key=value} arguments.
+     */
+    static Properties parseArguments(String[] args) {
+        Properties properties = new Properties();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) throw new IllegalArgumentException("Expected key=value but got " + arg);
+            properties.setProperty(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return properties;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try (exchange) {
+            requests.increment();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (latencyMillis > 0) Thread.sleep(random.nextLong(latencyMillis * 2 + 1));
+            if (random.nextDouble() < failureRate) {
+                failures.increment();
+                respond(exchange, 500, "Internal Server Error");
+                return;
+            }
+            handler.handle(exchange);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void loginForm(HttpExchange exchange) throws IOException {
+        String session = newSession();
+        String csrfToken = UUID.randomUUID().toString();
+        csrfTokens.put(session, csrfToken);
+        exchange.getResponseHeaders().add("Set-Cookie", SESSION_COOKIE_NAME + "=" + session + "; path=/");
+        respond(exchange, 200, String.format(LOGIN_FORM, csrfToken));
+    }
+
+    private void login(HttpExchange exchange) throws IOException {
+        Map<String, String> form = parseForm(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        String csrfToken = csrfTokens.remove(String.valueOf(sessionCookie(exchange)));
+        String username = form.get("username");
+        if (csrfToken == null || !csrfToken.equals(form.get("csrf")) || username == null || !PASSWORD.equals(form.get("password"))) {
+            redirect(exchange, "/login");
+            return;
+        }
+
+        String session = newSession();
+        sessions.put(session, username);
+        logins.increment();
+        exchange.getResponseHeaders().add("Set-Cookie", SESSION_COOKIE_NAME + "=" + session + "; path=/");
+        redirect(exchange, "/start");
+    }
+
+    private void schedule(HttpExchange exchange) throws IOException {
+        if (sessionUser(exchange) == null) {
+            redirect(exchange, "/");
+            return;
+        }
+        respond(exchange, 200, schedulePage);
+    }
+
+    private void substitutions(HttpExchange exchange) throws IOException {
+        String username = sessionUser(exchange);
+        if (username == null) {
+            redirect(exchange, "/");
+            return;
+        }
+
+        AtomicInteger version = versions.computeIfAbsent(username, key -> new AtomicInteger());
+        int current = ThreadLocalRandom.current().nextDouble() < churnRate ? version.incrementAndGet() : version.get();
+        String eTag = "\"" + current + "\"";
+        exchange.getResponseHeaders().add("ETag", eTag);
+        if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModified.increment();
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        // Each version moves one substitution to another room and bumps the "Stand" the source compares
+        respond(exchange, 200, substitutionsPage
+                .replace("R204", "R" + (200 + current % 100))
+                .replace(LAST_EDITED.format(LAST_EDITED_FORMATTER), LAST_EDITED.plusMinutes(current).format(LAST_EDITED_FORMATTER)));
+    }
+
+    private String sessionUser(HttpExchange exchange) {
+        String session = sessionCookie(exchange);
+        return session == null ? null : sessions.get(session);
+    }
+
+    private static String newSession() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    private static String sessionCookie(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Cookie");
+        if (header == null) return null;
+        for (String cookie : header.split(";")) {
+            String[] pair = cookie.trim().split("=", 2);
+            if (pair.length == 2 && pair[0].equals(SESSION_COOKIE_NAME)) return pair[1];
+        }
+        return null;
+    }
+
+    private static Map<String, String> parseForm(String body) {
+        Map<String, String> form = new HashMap<>();
+        for (String field : body.split("&")) {
+            String[] pair = field.split("=", 2);
+            if (pair.length == 2) form.put(URLDecoder.decode(pair[0], StandardCharsets.UTF_8), URLDecoder.decode(pair[1], StandardCharsets.UTF_8));
+        }
+        return form;
+    }
+
+    private static void redirect(HttpExchange exchange, String location) throws IOException {
+        exchange.getResponseHeaders().add("Location", location);
+        exchange.sendResponseHeaders(302, -1);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.benchmark;
+
+import net.dynv6.hut512.plenumbot.schedule.render.DefaultScheduleRenderManager;
+import net.dynv6.hut512.plenumbot.schedule.render.ImageBufferPool;
+import net.dynv6.hut512.plenumbot.schedule.render.PngEncoder;
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes a rendered schedule with ImageIO and with the indexed {@link PngEncoder} at different settings, given as
+ * {@code indexed:<level>:<filter>}. The encoded size is reported as the {@code encodedBytes} counter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class EncodeBenchmark {
+    @Param({"6", "8", "10"})
+    private int lessonsPerDay;
+
+    @Param({"0", "0.1", "0.5"})
+    private double substitutionDensity;
+
+    @Param({"imageio", "indexed:1:NONE", "indexed:6:NONE", "indexed:9:NONE", "indexed:6:ADAPTIVE"})
+    private String format;
+
+    private BufferedImage image;
+    private PngEncoder pngEncoder;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() throws IOException {
+        image = new DefaultScheduleRenderManager(new ImageBufferPool(1))
+                .render(ScheduleFixtures.createScheduleInfo(lessonsPerDay, substitutionDensity, 1), ScheduleFixtures.createOptions("encode"));
+        if (format.startsWith("indexed:")) {
+            String[] settings = format.split(":");
+            pngEncoder = new PngEncoder(Integer.parseInt(settings[1]), PngEncoder.Filter.valueOf(settings[2]));
+        }
+        out = new ByteArrayOutputStream();
+    }
+
+    @Benchmark
+    public int encode(Size size) throws IOException {
+        out.reset();
+        if (pngEncoder == null) ImageIO.write(image, "png", out);
+        else pngEncoder.encode(image, out);
+        size.encodedBytes = out.size();
+        return out.size();
+    }
+
+    /**
+     * Every call encodes the same image, so the size of the last one is reported as is.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Size {
+        public long encodedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            encodedBytes = 0;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.benchmark;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfo;
+import net.dynv6.hut512.plenumbot.schedule.render.DefaultScheduleRenderManager;
+import net.dynv6.hut512.plenumbot.schedule.render.ImageBufferPool;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.image.BufferedImage;
+import java.time.DayOfWeek;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders synthetic schedules through {@link DefaultScheduleRenderManager}. Run with {@code -prof gc} for the
+ * allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class RenderBenchmark {
+    // More unrelated schedules than the renderer keeps states, so every cold render redraws most cells
+    private static final int COLD_SCHEDULES = 32;
+
+    @Param({"6", "8", "11"})
+    private int lessonsPerDay;
+
+    @Param({"0.0", "0.1", "0.5"})
+    private double substitutionDensity;
+
+    private ImageBufferPool imageBufferPool;
+    private DefaultScheduleRenderManager renderManager;
+    private ScheduleInfo[] scheduleInfos;
+    private ScheduleInfo[] coldScheduleInfos;
+    private ObjectNode options;
+    private int next;
+
+    @Setup
+    public void setup() {
+        imageBufferPool = new ImageBufferPool(1);
+        renderManager = new DefaultScheduleRenderManager(imageBufferPool);
+        // Successive versions differ by a single substitution like most updates of one class do
+        ScheduleInfo scheduleInfo = ScheduleFixtures.createScheduleInfo(lessonsPerDay, substitutionDensity, 1);
+        scheduleInfos = new ScheduleInfo[]{scheduleInfo, ScheduleFixtures.withSubstitution(scheduleInfo, DayOfWeek.WEDNESDAY, 2, "Vertr.")};
+        coldScheduleInfos = new ScheduleInfo[COLD_SCHEDULES];
+        for (int i = 0; i < COLD_SCHEDULES; i++) {
+            coldScheduleInfos[i] = ScheduleFixtures.createScheduleInfo(lessonsPerDay, substitutionDensity, 100 + i);
+        }
+        options = ScheduleFixtures.createOptions("10a");
+    }
+
+    @TearDown
+    public void tearDown() {
+        renderManager.shutdown();
+    }
+
+    @Benchmark
+    public void renderCold(Blackhole blackhole) {
+        render(coldScheduleInfos[next++ % COLD_SCHEDULES], options, blackhole);
+    }
+
+    @Benchmark
+    public void renderDelta(Blackhole blackhole) {
+        render(scheduleInfos[next++ & 1], options, blackhole);
+    }
+
+    private void render(ScheduleInfo scheduleInfo, ObjectNode options, Blackhole blackhole) {
+        BufferedImage image = renderManager.render(scheduleInfo, options);
+        blackhole.consume(image);
+        imageBufferPool.release(image);
+    }
+}
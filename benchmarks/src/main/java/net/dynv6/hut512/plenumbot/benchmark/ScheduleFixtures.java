@@ -0,0 +1,109 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.experimental.UtilityClass;
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic schedules, so the benchmarks need neither a portal nor a database.
+ */
+@UtilityClass
+public class ScheduleFixtures {
+    private static final String[] SUBJECTS = {"D", "M", "E", "F", "L", "Ph", "Ch", "B", "G", "Geo", "Ku", "Mu", "Sp", "Inf", "Eth", "Wi"};
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * A Monday to Friday schedule with the given number of lessons per day. Every lesson is substituted with the
+     * given probability. The same seed always yields the same schedule.
+     */
+    public static ScheduleInfo createScheduleInfo(int lessonsPerDay, double substitutionDensity, long seed) {
+        Random random = new Random(seed);
+
+        LocalTime[][] schoolHours = new LocalTime[lessonsPerDay][];
+        for (int i = 0; i < lessonsPerDay; i++) {
+            LocalTime start = LocalTime.of(8, 0).plusMinutes(50L * i);
+            schoolHours[i] = new LocalTime[]{start, start.plusMinutes(45)};
+        }
+
+        Map<DayOfWeek, ScheduleInfo.Lesson[]> lessons = new HashMap<>();
+        for (DayOfWeek day = DayOfWeek.MONDAY; day.compareTo(DayOfWeek.FRIDAY) <= 0; day = day.plus(1)) {
+            ScheduleInfo.Lesson[] lessonsOfDay = new ScheduleInfo.Lesson[lessonsPerDay];
+            for (int i = 0; i < lessonsPerDay; i++) {
+                lessonsOfDay[i] = new ScheduleInfo.Lesson(randomSubject(random), "R" + (100 + random.nextInt(200)), "");
+                if (random.nextDouble() < substitutionDensity) {
+                    lessonsOfDay[i].setSubstituteSubject(randomSubject(random));
+                    lessonsOfDay[i].setSubstituteRoom("R" + (100 + random.nextInt(200)));
+                }
+            }
+            lessons.put(day, lessonsOfDay);
+        }
+
+        ScheduleInfo scheduleInfo = new ScheduleInfo(schoolHours, lessons);
+        scheduleInfo.setLastUpdate(LocalDateTime.of(2023, 5, 8, 7, 30).plusMinutes(random.nextInt(600)));
+        return scheduleInfo;
+    }
+
+    /**
+     * A newer version of the schedule with one more substitution.
+     */
+    public static ScheduleInfo withSubstitution(ScheduleInfo scheduleInfo, DayOfWeek day, int lesson, String substituteSubject) {
+        ScheduleInfo copy = scheduleInfo.copy();
+        copy.getLessons().get(day)[lesson].setSubstituteSubject(substituteSubject);
+        copy.setLastUpdate(scheduleInfo.getLastUpdate().plusMinutes(5));
+        return copy;
+    }
+
+    public static ObjectNode createOptions(String className) {
+        ObjectNode options = OBJECT_MAPPER.createObjectNode();
+        options.put("class", className);
+        options.put("language", "de");
+        return options;
+    }
+
+    /**
+     * Reads a recorded page from the module's resources, e.g. {@code elternportal/stundenplan.html}.
+     */
+    public static String readResource(String name) {
+        try (InputStream in = ScheduleFixtures.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) throw new IllegalStateException("Missing fixture " + name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String randomSubject(Random random) {
+        return SUBJECTS[random.nextInt(SUBJECTS.length)];
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.benchmark;
+
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfo;
+import net.dynv6.hut512.plenumbot.schedule.render.DefaultTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.time.DayOfWeek;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws a whole {@link DefaultTable}, without the caches of the render manager around it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class TableBenchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    @Param({"6", "8", "11"})
+    private int lessonsPerDay;
+
+    @Param({"0.0", "0.5"})
+    private double substitutionDensity;
+
+    private DefaultTable table;
+    private BufferedImage image;
+
+    @Setup
+    public void setup() {
+        ScheduleInfo scheduleInfo = ScheduleFixtures.createScheduleInfo(lessonsPerDay, substitutionDensity, 1);
+        String[][] data = new String[lessonsPerDay + 1][6];
+        for (int day = 1; day <= 5; day++) {
+            data[0][day] = DayOfWeek.of(day).name();
+            ScheduleInfo.Lesson[] lessons = scheduleInfo.getLessons().get(DayOfWeek.of(day));
+            for (int i = 0; i < lessonsPerDay; i++) {
+                ScheduleInfo.Lesson lesson = lessons[i];
+                data[i + 1][day] = lesson.getSubstituteSubject() == null ? lesson.getSubject()
+                        : "~" + lesson.getSubject() + "\n" + lesson.getSubstituteSubject();
+            }
+        }
+        for (int i = 1; i <= lessonsPerDay; i++) {
+            data[i][0] = i + ".";
+        }
+        table = new DefaultTable(data, WIDTH / 20, HEIGHT / 20, WIDTH - WIDTH / 10, HEIGHT - HEIGHT / 5);
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    @Benchmark
+    public BufferedImage draw() {
+        Graphics2D g2d = image.createGraphics();
+        g2d.setBackground(Color.DARK_GRAY);
+        g2d.clearRect(0, 0, WIDTH, HEIGHT);
+        table.draw(g2d);
+        g2d.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.dynv6.hut512.plenumbot.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.RequiredArgsConstructor;
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfo;
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfoException;
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfoManager;
+import net.dynv6.hut512.plenumbot.schedule.render.*;
+import net.dynv6.hut512.plenumbot.schedule.source.ScheduleSourceManagers;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives synthetic guilds through the update cycle of the {@code ScheduleInfoUpdater} against an
+ * {@link ElternportalStandIn}: fetch on the fetch threads, then fingerprint, render and encode on the render threads.
+ * Discord is left out, so the upload stage is not part of the numbers. Snapshots and fingerprints are written to a
+ * standalone SQLite database in a fresh temporary home directory, unless one is given with {@code -Duser.home=...}.
+ * <p>
+ * Arguments are {@code key=value} pairs, see {@link #main} for the keys and their defaults. For every cycle the
+ * duration, the latency percentiles of each stage and the heap use are printed.
+ */
+public class UpdateCycleLoadTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String SOURCE_MANAGER = "elternportal";
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private final ScheduleInfoManager infoManager;
+    private final ExecutorService fetchExecutor;
+    private final ExecutorService renderExecutor;
+    private final String renderManagerName;
+    private final ImageFormat format;
+    private final List<ObjectNode> guildOptions = new ArrayList<>();
+    private final ThreadLocal<long[]> renderNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+    private Samples fetchSamples;
+    private Samples renderSamples;
+    private Samples encodeSamples;
+    private Map<String, LongAdder> outcomes;
+
+    private UpdateCycleLoadTest(Properties config, String url) {
+        int renderThreads = Integer.parseInt(config.getProperty("renderThreads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        RenderCache renderCache = new RenderCache(MEGABYTE * Long.parseLong(config.getProperty("renderCacheSize", "64")),
+                null, 0, renderThreads);
+        // Without a retention every cycle loads from the stand-in again, concurrent loads are still coalesced
+        this.infoManager = new ScheduleInfoManager(Integer.parseInt(config.getProperty("snapshotCacheSize", "256")),
+                Duration.ofSeconds(Long.parseLong(config.getProperty("retention", "0"))), renderCache, new ImageBufferPool(renderThreads));
+        ScheduleRenderManagers.registerRenders(infoManager, ZoneId.of("Europe/Berlin"));
+        // Replaces the registered default renderer, so the render time can be told apart from the encode time
+        infoManager.registerRenderManager(new TimedRenderManager(new DefaultScheduleRenderManager(infoManager.getImageBufferPool()), renderNanos));
+        Properties sourceConfig = new Properties();
+        sourceConfig.setProperty("ELTERNPORTAL_URL", url);
+        ScheduleSourceManagers.registerSources(infoManager, sourceConfig);
+
+        this.fetchExecutor = Executors.newFixedThreadPool(Integer.parseInt(config.getProperty("fetchThreads", "16")));
+        this.renderExecutor = Executors.newFixedThreadPool(renderThreads);
+        this.renderManagerName = config.getProperty("renderer", "default");
+        this.format = ImageFormat.of(config.getProperty("format", "png"),
+                Integer.parseInt(config.getProperty("compressionLevel", "6")), config.getProperty("filter", "none"));
+
+        int guilds = Integer.parseInt(config.getProperty("guilds", "2000"));
+        // Guilds of the same school share an account, so their loads are coalesced and their renders shared
+        int accounts = Integer.parseInt(config.getProperty("accounts", String.valueOf(Math.max(1, guilds / 4))));
+        for (int guild = 0; guild < guilds; guild++) {
+            ObjectNode options = OBJECT_MAPPER.createObjectNode();
+            options.put("username", "user" + guild % accounts);
+            options.put("password", ElternportalStandIn.PASSWORD);
+            options.put("language", guild % 2 == 0 ? "de" : "en");
+            guildOptions.add(options);
+        }
+    }
+
+    /**
+     * Keys: {@code guilds} (2000), {@code accounts} (guilds / 4), {@code cycles} (5), {@code fetchThreads} (16),
+     * {@code renderThreads} (processors), {@code renderer} (default), {@code format} (png), {@code compressionLevel} (6),
+     * {@code filter} (none), {@code snapshotCacheSize} (256), {@code renderCacheSize} in megabytes (64),
+     * {@code retention} of source loads in seconds (0), {@code latency} in milliseconds (50), {@code failureRate} (0)
+     * and {@code churn} (0.1).
+     */
+    public static void main(String[] args) throws IOException {
+        // Must happen before the first statement is created, which opens the database in the home directory
+        if (ManagementFactory.getRuntimeMXBean().getInputArguments().stream().noneMatch(arg -> arg.startsWith("-Duser.home="))) {
+            Path home = Files.createTempDirectory("plenumbot-loadtest");
+            System.setProperty("user.home", home.toString());
+            System.out.println("Using database in " + home);
+        }
+
+        Properties config = ElternportalStandIn.parseArguments(args);
+        ElternportalStandIn standIn = new ElternportalStandIn(0, Long.parseLong(config.getProperty("latency", "50")),
+                Double.parseDouble(config.getProperty("failureRate", "0")),
+                Double.parseDouble(config.getProperty("churn", "0.1")));
+        standIn.start();
+
+        UpdateCycleLoadTest loadTest = new UpdateCycleLoadTest(config, standIn.getUrl());
+        try {
+            int cycles = Integer.parseInt(config.getProperty("cycles", "5"));
+            for (int cycle = 1; cycle <= cycles; cycle++) {
+                long requests = standIn.getRequests().sum();
+                long failures = standIn.getFailures().sum();
+                long logins = standIn.getLogins().sum();
+                long notModified = standIn.getNotModified().sum();
+                loadTest.runCycle(cycle);
+                System.out.printf("  stand-in: %d requests, %d failed, %d logins, %d not modified%n",
+                        standIn.getRequests().sum() - requests, standIn.getFailures().sum() - failures,
+                        standIn.getLogins().sum() - logins, standIn.getNotModified().sum() - notModified);
+            }
+        } finally {
+            loadTest.shutdown();
+            standIn.stop();
+        }
+    }
+
+    private void runCycle(int cycle) {
+        fetchSamples = new Samples();
+        renderSamples = new Samples();
+        encodeSamples = new Samples();
+        outcomes = new ConcurrentHashMap<>();
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP).toList();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> updates = new ArrayList<>();
+        for (int guild = 0; guild < guildOptions.size(); guild++) {
+            long guildId = guild;
+            ObjectNode options = guildOptions.get(guild).deepCopy();
+            updates.add(CompletableFuture.supplyAsync(() -> fetch(options), fetchExecutor)
+                    .thenAcceptAsync(result -> render(guildId, options, result), renderExecutor));
+        }
+        CompletableFuture.allOf(updates.toArray(CompletableFuture[]::new)).join();
+        long duration = System.nanoTime() - start;
+
+        long heapUsed = heapPools.stream().mapToLong(pool -> pool.getUsage().getUsed()).sum();
+        long heapPeak = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        System.out.printf("Cycle %d: %d guilds in %.1f ms, %s%n", cycle, guildOptions.size(), duration / 1e6, new TreeMap<>(outcomes));
+        System.out.println("  fetch:  " + fetchSamples.summary());
+        System.out.println("  render: " + renderSamples.summary());
+        System.out.println("  encode: " + encodeSamples.summary());
+        System.out.printf("  heap: %d MB used, %d MB peak, %d collections in %d ms%n",
+                heapUsed / MEGABYTE, heapPeak / MEGABYTE, gcCount() - gcCount, gcMillis() - gcMillis);
+    }
+
+    /**
+     * Returns the schedule or the {@link ScheduleInfoException} the guild's load failed with.
+     */
+    private Object fetch(ObjectNode options) {
+        long start = System.nanoTime();
+        try {
+            return infoManager.loadScheduleInfo(renderManagerName, SOURCE_MANAGER, options);
+        } catch (ScheduleInfoException e) {
+            count("error " + e.getReason());
+            return e;
+        } finally {
+            fetchSamples.add(System.nanoTime() - start);
+        }
+    }
+
+    private void render(long guild, ObjectNode options, Object result) {
+        boolean embed = infoManager.isEmbedRenderer(renderManagerName);
+        String formatKey = embed ? "embed" : format.getKey();
+        long[] render = renderNanos.get();
+        render[0] = 0;
+        long start = System.nanoTime();
+        try {
+            if (result instanceof ScheduleInfoException exception) {
+                String fingerprint = infoManager.createErrorFingerprint(exception.getMessage(), formatKey);
+                if (infoManager.isRendered(guild, fingerprint)) return;
+                if (embed) infoManager.createErrorEmbed(exception.getMessage());
+                else infoManager.createErrorImage(fingerprint, exception.getMessage(), format);
+                infoManager.markRendered(guild, fingerprint);
+                return;
+            }
+
+            ScheduleInfo scheduleInfo = (ScheduleInfo) result;
+            String fingerprint = infoManager.createFingerprint(renderManagerName, scheduleInfo, options, formatKey);
+            if (infoManager.isRendered(guild, fingerprint)) {
+                count("unchanged");
+                return;
+            }
+            if (embed) {
+                infoManager.createScheduleEmbed(guild, renderManagerName, scheduleInfo, options);
+                renderSamples.add(System.nanoTime() - start);
+                count("rendered");
+            } else {
+                infoManager.createScheduleImage(guild, fingerprint, renderManagerName, scheduleInfo, options, format);
+                if (render[0] > 0) {
+                    renderSamples.add(render[0]);
+                    encodeSamples.add(System.nanoTime() - start - render[0]);
+                    count("rendered");
+                } else {
+                    // Another guild with the same fingerprint rendered it already
+                    count("cached");
+                }
+            }
+            infoManager.markRendered(guild, fingerprint);
+        } catch (IOException e) {
+            count("error " + e.getClass().getSimpleName());
+        }
+    }
+
+    private void count(String outcome) {
+        outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+    }
+
+    private void shutdown() {
+        fetchExecutor.shutdownNow();
+        renderExecutor.shutdownNow();
+        infoManager.shutdown();
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    private static class Samples {
+        private long[] values = new long[1024];
+        private int size;
+
+        private synchronized void add(long nanos) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = nanos;
+        }
+
+        private synchronized String summary() {
+            if (size == 0) return "no samples";
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return String.format("n=%d p50=%.2f ms p90=%.2f ms p99=%.2f ms max=%.2f ms", size,
+                    percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99), sorted[size - 1] / 1e6);
+        }
+
+        private static double percentile(long[] sorted, double percentile) {
+            return sorted[(int) Math.ceil(percentile * sorted.length) - 1] / 1e6;
+        }
+    }
+
+    /**
+     * Records how long the wrapped renderer took on the current thread, the rest of an image creation is encoding.
+     */
+    @RequiredArgsConstructor
+    private static class TimedRenderManager implements ImageScheduleRenderManager {
+        private final ImageScheduleRenderManager renderManager;
+        private final ThreadLocal<long[]> renderNanos;
+
+        @Override
+        public void shutdown() {
+            renderManager.shutdown();
+        }
+
+        @Override
+        public String getName() {
+            return renderManager.getName();
+        }
+
+        @Override
+        public Set<String> getOptionNames() {
+            return renderManager.getOptionNames();
+        }
+
+        @Override
+        public String getRenderState() {
+            return renderManager.getRenderState();
+        }
+
+        @Override
+        public BufferedImage render(ScheduleInfo scheduleInfo, ObjectNode options) {
+            long start = System.nanoTime();
+            try {
+                return renderManager.render(scheduleInfo, options);
+            } finally {
+                renderNanos.get()[0] += System.nanoTime() - start;
+            }
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.steamwar.sql.internal;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of database connections. Waiting threads get connections in arrival order and give up after the
+ * acquire timeout. Idle connections are validated before reuse once they sat unused for the validation interval,
+ * and a background task pings them at the keepalive interval so the server does not drop them. Connections older
+ * than the max lifetime are replaced. Intervals of zero disable the respective check.
+ */
+public class ConnectionPool {
+    private static final Logger logger = Logger.getGlobal();
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final Supplier<Connection> connectionProvider;
+    private final Consumer<Connection> closeListener;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final long maxLifetimeMillis;
+    // Every borrowed connection holds a permit, fairness makes waiting threads take turns
+    private final Semaphore permits;
+    // Most recently used first, so the least recently used connections at the end idle out and get validated
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Map<Connection, PooledConnection> borrowed = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService keepalive;
+    private final long createdAt = System.nanoTime();
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+
+    ConnectionPool(Supplier<Connection> connectionProvider, Consumer<Connection> closeListener, int maxSize, long acquireTimeoutMillis,
+                   long validationIntervalMillis, long keepaliveIntervalMillis, long maxLifetimeMillis) {
+        this.connectionProvider = connectionProvider;
+        this.closeListener = closeListener;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.permits = new Semaphore(maxSize, true);
+
+        if (keepaliveIntervalMillis > 0) {
+            keepalive = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "SQL connection keepalive");
+                thread.setDaemon(true);
+                return thread;
+            });
+            keepalive.scheduleWithFixedDelay(this::keepalive, keepaliveIntervalMillis, keepaliveIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            keepalive = null;
+        }
+    }
+
+    /**
+     * Reads {@code poolSize}, {@code poolAcquireTimeout}, {@code poolValidationInterval}, {@code poolKeepaliveInterval}
+     * and {@code poolMaxLifetime} from the given properties, all durations in milliseconds.
+     */
+    static ConnectionPool fromProperties(Properties properties, Supplier<Connection> connectionProvider, Consumer<Connection> closeListener) {
+        return new ConnectionPool(connectionProvider, closeListener,
+                Integer.parseInt(properties.getProperty("poolSize", "10")),
+                Long.parseLong(properties.getProperty("poolAcquireTimeout", "30000")),
+                Long.parseLong(properties.getProperty("poolValidationInterval", "30000")),
+                Long.parseLong(properties.getProperty("poolKeepaliveInterval", "120000")),
+                Long.parseLong(properties.getProperty("poolMaxLifetime", "1800000")));
+    }
+
+    Connection acquire() {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SecurityException("No SQL connection available after " + acquireTimeoutMillis + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SecurityException("Interrupted while waiting for a SQL connection", e);
+        }
+
+        long waited = System.nanoTime() - start;
+        acquisitions.increment();
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        try {
+            PooledConnection connection = takeIdle();
+            if (connection == null) connection = open();
+            connection.borrowedAt = System.nanoTime();
+            borrowed.put(connection.connection, connection);
+            return connection.connection;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool, broken connections are closed instead.
+     */
+    void release(Connection connection, boolean broken) {
+        PooledConnection pooled = borrowed.remove(connection);
+        if (pooled == null) return;
+
+        long now = System.nanoTime();
+        busyNanos.add(now - pooled.borrowedAt);
+        if (broken || isExpired(pooled, now)) {
+            close(pooled);
+        } else {
+            pooled.lastUsed = now;
+            idle.offerFirst(pooled);
+        }
+        permits.release();
+    }
+
+    /**
+     * Closes all idle connections and waits until the borrowed ones are returned to close them as well.
+     */
+    void closeAll() {
+        if (keepalive != null) keepalive.shutdownNow();
+        permits.acquireUninterruptibly(maxSize);
+        try {
+            PooledConnection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                close(connection);
+            }
+        } finally {
+            permits.release(maxSize);
+        }
+    }
+
+    private PooledConnection takeIdle() {
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            long now = System.nanoTime();
+            if (isExpired(connection, now)) {
+                close(connection);
+            } else if (validationIntervalMillis > 0 && now - connection.lastUsed > TimeUnit.MILLISECONDS.toNanos(validationIntervalMillis) && !isValid(connection.connection)) {
+                close(connection);
+            } else {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    private PooledConnection open() {
+        PooledConnection connection = new PooledConnection(connectionProvider.get());
+        connectionsOpened.increment();
+        return connection;
+    }
+
+    private void keepalive() {
+        // Checks every connection that was idle when the pass started once, each check holds a permit like any
+        // other borrower. Connections borrowed in the meantime are skipped
+        for (PooledConnection connection : new ArrayList<>(idle)) {
+            if (!permits.tryAcquire()) break;
+            try {
+                if (!idle.removeFirstOccurrence(connection)) continue;
+
+                if (isExpired(connection, System.nanoTime()) || !isValid(connection.connection)) {
+                    close(connection);
+                } else {
+                    connection.lastUsed = System.nanoTime();
+                    idle.offerFirst(connection);
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.INFO, "Could not keep SQL connection alive", e);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private boolean isExpired(PooledConnection connection, long now) {
+        return maxLifetimeMillis > 0 && now - connection.createdAt > TimeUnit.MILLISECONDS.toNanos(maxLifetimeMillis);
+    }
+
+    static boolean isValid(Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            logger.log(Level.INFO, "Could not check SQL connection status", e); // No database logging possible at this state
+            return false;
+        }
+    }
+
+    private void close(PooledConnection connection) {
+        closeListener.accept(connection.connection);
+        try {
+            connection.connection.close();
+        } catch (SQLException e) {
+            logger.log(Level.INFO, "Could not close connection", e);
+        }
+        connectionsClosed.increment();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getBorrowed() {
+        return borrowed.size();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public int getWaiting() {
+        return permits.getQueueLength();
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    public long getConnectionsClosed() {
+        return connectionsClosed.sum();
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long acquisitions = getAcquisitions();
+        return acquisitions == 0 ? 0 : waitNanos.sum() / 1e6 / acquisitions;
+    }
+
+    /**
+     * Share of the pool's capacity that was borrowed since it was created, from 0 to 1.
+     */
+    public double getUtilisation() {
+        return busyNanos.sum() / ((double) (System.nanoTime() - createdAt) * maxSize);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d borrowed, %d idle, %d waiting, %d acquisitions, avg wait %.2f ms, max wait %.2f ms, %d timeouts, utilisation %.1f%%, %d opened, %d closed",
+                getBorrowed(), maxSize, getIdle(), getWaiting(), getAcquisitions(), getAverageWaitMillis(), getMaxWaitNanos() / 1e6,
+                getTimeouts(), getUtilisation() * 100, getConnectionsOpened(), getConnectionsClosed());
+    }
+
+    private static class PooledConnection {
+        private final Connection connection;
+        private final long createdAt = System.nanoTime();
+        private volatile long lastUsed = createdAt;
+        private volatile long borrowedAt;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+}
@@ -35,7 +35,9 @@ public class SelectStatement<T> extends Statement {
     }
 
     public SelectStatement(Table<T> table, String sql) {
-        super(sql);
+        //Start PlenumBot
+        super(sql, false, true);
+        //End PlenumBot
         this.table = table;
     }
 
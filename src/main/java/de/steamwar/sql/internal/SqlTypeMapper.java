@@ -65,6 +65,10 @@ public final class SqlTypeMapper<T> {
         new SqlTypeMapper<>(String.class, "TEXT", ResultSet::getString, PreparedStatement::setString);
         new SqlTypeMapper<>(Timestamp.class, "TIMESTAMP", ResultSet::getTimestamp, PreparedStatement::setTimestamp);
         new SqlTypeMapper<>(InputStream.class, "BLOB", ResultSet::getBinaryStream, PreparedStatement::setBinaryStream);
+        //Start PlenumBot
+        // sqlite-jdbc does not implement setBinaryStream, byte arrays work with both databases
+        new SqlTypeMapper<>(byte[].class, "BLOB", ResultSet::getBytes, PreparedStatement::setBytes);
+        //End PlenumBot
     }
 
     private static <T> void primitiveMapper(Class<T> primitive, Class<T> wrapped, String sqlType, SQLReader<T> reader, SQLWriter<T> writer) {
@@ -19,11 +19,14 @@
 
 package de.steamwar.sql.internal;
 
+import org.sqlite.SQLiteConfig;
+
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
@@ -36,8 +39,13 @@ public class Statement implements AutoCloseable {
     //End PlenumBot
 
     private static final List<Statement> statements = new ArrayList<>();
-    private static final Deque<Connection> connections = new ArrayDeque<>();
-    private static final int MAX_CONNECTIONS;
+    //Start PlenumBot
+    private static final ConnectionPool pool;
+    // Serves SelectStatements, the same pool as above unless the database supports concurrent readers
+    private static final ConnectionPool readPool;
+    // A failing statement is retried once on a fresh connection if its connection turned out to be broken
+    private static final int MAX_ATTEMPTS = 2;
+    //End PlenumBot
     private static final Supplier<Connection> conProvider;
     static final Consumer<Table<?>> schemaCreator;
     static final String ON_DUPLICATE_KEY;
@@ -64,9 +72,6 @@ public class Statement implements AutoCloseable {
             String password = properties.getProperty("password");
 
             PRODUCTION_DATABASE = "core".equals(properties.getProperty("database"));
-            //Start PlenumBot
-            MAX_CONNECTIONS = 4;
-            //End PlenumBot
             conProvider = () -> {
                 try {
                     return DriverManager.getConnection(url, user, password);
@@ -74,24 +79,51 @@ public class Statement implements AutoCloseable {
                     throw new SecurityException("Could not create MySQL connection", e);
                 }
             };
+            //Start PlenumBot
+            pool = ConnectionPool.fromProperties(properties, conProvider, Statement::closeStatements);
+            readPool = pool;
+            //End PlenumBot
             schemaCreator = table -> {
             };
             ON_DUPLICATE_KEY = " ON DUPLICATE KEY UPDATE ";
             upsertWrapper = f -> f + " = VALUES(" + f + ")";
             NULL_SAFE_EQUALS = " <=> ";
         } else {
-            Connection connection;
-
-            try {
-                Class.forName("org.sqlite.JDBC");
-                connection = DriverManager.getConnection("jdbc:sqlite:" + System.getProperty("user.home") + "/standalone.db");
-            } catch (SQLException | ClassNotFoundException e) {
-                throw new SecurityException("Could not create sqlite connection", e);
+            //Start PlenumBot
+            Properties properties = new Properties();
+            File sqliteFile = new File(System.getProperty("user.home"), "sqlite.properties");
+            if (sqliteFile.exists()) {
+                try {
+                    properties.load(new FileReader(sqliteFile));
+                } catch (IOException e) {
+                    throw new SecurityException("Could not load SQL connection", e);
+                }
             }
 
+            String url = "jdbc:sqlite:" + System.getProperty("user.home") + "/standalone.db";
+            int busyTimeout = Integer.parseInt(properties.getProperty("busyTimeout", "5000"));
+            SQLiteConfig.JournalMode journalMode = SQLiteConfig.JournalMode.valueOf(properties.getProperty("journalMode", "WAL"));
+
+            // In WAL mode readers neither block the writer nor each other, SQLite still allows only one writer
+            SQLiteConfig writerConfig = new SQLiteConfig();
+            writerConfig.setJournalMode(journalMode);
+            writerConfig.setSynchronous(SQLiteConfig.SynchronousMode.valueOf(properties.getProperty("synchronous", "NORMAL")));
+            writerConfig.setBusyTimeout(busyTimeout);
+
+            SQLiteConfig readerConfig = new SQLiteConfig();
+            readerConfig.setReadOnly(true);
+            readerConfig.setBusyTimeout(busyTimeout);
+
             PRODUCTION_DATABASE = false;
-            MAX_CONNECTIONS = 1;
-            conProvider = () -> connection;
+            // Opens a new connection, so a broken one can be replaced instead of being handed out again
+            conProvider = () -> openSqlite(writerConfig, url);
+            pool = new ConnectionPool(conProvider, Statement::closeStatements, 1, 30000, 0, 0, 0);
+            // Without WAL readers would block the writer, so they share its connection
+            readPool = journalMode == SQLiteConfig.JournalMode.WAL
+                    ? new ConnectionPool(() -> openSqlite(readerConfig, url), Statement::closeStatements,
+                    Integer.parseInt(properties.getProperty("readPoolSize", "4")), 30000, 0, 0, 0)
+                    : pool;
+            //End PlenumBot
             schemaCreator = Table::ensureExistanceInSqlite;
             ON_DUPLICATE_KEY = " ON CONFLICT DO UPDATE SET ";
             upsertWrapper = f -> f + " = " + f;
@@ -99,18 +131,31 @@ public class Statement implements AutoCloseable {
         }
     }
 
-    private static volatile int connectionBudget = MAX_CONNECTIONS;
-
     public static void closeAll() {
-        synchronized (connections) {
-            while (connectionBudget < MAX_CONNECTIONS) {
-                if (connections.isEmpty())
-                    waitOnConnections();
-                else
-                    closeConnection(aquireConnection());
-            }
+        //Start PlenumBot
+        if (readPool != pool)
+            readPool.closeAll();
+        pool.closeAll();
+        //End PlenumBot
+    }
+
+    //Start PlenumBot
+    public static ConnectionPool getPool() {
+        return pool;
+    }
+
+    public static ConnectionPool getReadPool() {
+        return readPool;
+    }
+
+    private static Connection openSqlite(SQLiteConfig config, String url) {
+        try {
+            return config.createConnection(url);
+        } catch (SQLException e) {
+            throw new SecurityException("Could not create sqlite connection", e);
         }
     }
+    //End PlenumBot
 
     public static boolean mysqlMode() {
         return MYSQL_MODE;
@@ -122,13 +167,24 @@ public class Statement implements AutoCloseable {
 
     private final boolean returnGeneratedKeys;
     private final String sql;
-    private final Map<Connection, PreparedStatement> cachedStatements = new HashMap<>();
+    //Start PlenumBot
+    private final boolean readOnly;
+    // Each connection is lent to one thread at a time, but several threads run this statement on different connections
+    private final Map<Connection, PreparedStatement> cachedStatements = new ConcurrentHashMap<>();
+    //End PlenumBot
 
     public Statement(String sql) {
         this(sql, false);
     }
 
     public Statement(String sql, boolean returnGeneratedKeys) {
+        //Start PlenumBot
+        this(sql, returnGeneratedKeys, false);
+    }
+
+    Statement(String sql, boolean returnGeneratedKeys, boolean readOnly) {
+        this.readOnly = readOnly;
+        //End PlenumBot
         this.sql = sql;
         this.returnGeneratedKeys = returnGeneratedKeys;
         synchronized (statements) {
@@ -162,43 +218,34 @@ public class Statement implements AutoCloseable {
         return sql;
     }
 
+    //Start PlenumBot
     private <T> T withConnection(SQLRunnable<T> runnable, Object... objects) {
-        Connection connection = aquireConnection();
-        T result;
+        ConnectionPool connectionPool = readOnly ? readPool : pool;
+        for (int attempt = 1; ; attempt++) {
+            Connection connection = connectionPool.acquire();
+            boolean[] executed = new boolean[1];
+            T result;
 
-        try {
-            result = tryWithConnection(connection, runnable, objects);
-        } catch (Throwable e) {
-            if (connectionInvalid(connection)) {
-                closeConnection(connection);
-
-                return withConnection(runnable, objects);
-            } else {
-                synchronized (connections) {
-                    connections.push(connection);
-                    connections.notify();
-                }
+            try {
+                result = tryWithConnection(connection, st -> {
+                    executed[0] = true;
+                    return runnable.run(st);
+                }, objects);
+            } catch (Throwable e) {
+                boolean broken = !ConnectionPool.isValid(connection);
+                connectionPool.release(connection, broken);
+                // A write may have been applied before the connection broke, so it is only replayed if it never ran
+                if (broken && attempt < MAX_ATTEMPTS && (readOnly || !executed[0]))
+                    continue;
 
                 throw new SecurityException("Failing sql statement", e);
             }
-        }
-
-        synchronized (connections) {
-            connections.push(connection);
-            connections.notify();
-        }
-
-        return result;
-    }
 
-    private boolean connectionInvalid(Connection connection) {
-        try {
-            return connection.isClosed() || !connection.isValid(1);
-        } catch (SQLException e) {
-            logger.log(Level.INFO, "Could not check SQL connection status", e); // No database logging possible at this state
-            return true;
+            connectionPool.release(connection, false);
+            return result;
         }
     }
+    //End PlenumBot
 
     private <T> T tryWithConnection(Connection connection, SQLRunnable<T> runnable, Object... objects) throws SQLException {
         PreparedStatement st = cachedStatements.get(connection);
@@ -236,48 +283,15 @@ public class Statement implements AutoCloseable {
             closeStatement(st, true);
     }
 
-    private static Connection aquireConnection() {
-        synchronized (connections) {
-            while (connections.isEmpty() && connectionBudget <= 0)
-                waitOnConnections();
-
-            if (!connections.isEmpty()) {
-                return connections.pop();
-            } else {
-                Connection connection = conProvider.get();
-                connectionBudget--;
-                return connection;
-            }
-        }
-    }
-
-    private static void closeConnection(Connection connection) {
+    //Start PlenumBot
+    private static void closeStatements(Connection connection) {
         synchronized (statements) {
             for (Statement statement : statements) {
                 statement.close(connection);
             }
         }
-        try {
-            connection.close();
-        } catch (SQLException e) {
-            logger.log(Level.INFO, "Could not close connection", e);
-        }
-
-        synchronized (connections) {
-            connectionBudget++;
-            connections.notify();
-        }
-    }
-
-    private static void waitOnConnections() {
-        synchronized (connections) {
-            try {
-                connections.wait();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }
     }
+    //End PlenumBot
 
     private static void closeStatement(PreparedStatement st, boolean silent) {
         try {
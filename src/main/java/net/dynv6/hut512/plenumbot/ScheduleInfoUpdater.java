@@ -21,79 +21,339 @@ package net.dynv6.hut512.plenumbot;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.steamwar.sql.internal.Statement;
+import lombok.RequiredArgsConstructor;
+import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.requests.ErrorResponse;
 import net.dv8tion.jda.api.utils.FileUpload;
+import net.dv8tion.jda.api.utils.messages.MessageCreateBuilder;
+import net.dv8tion.jda.api.utils.messages.MessageEditBuilder;
+import net.dv8tion.jda.api.utils.messages.MessageEditData;
+import net.dynv6.hut512.plenumbot.listener.ScheduleInfoListener;
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfo;
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfoException;
 import net.dynv6.hut512.plenumbot.schedule.ScheduleInfoManager;
+import net.dynv6.hut512.plenumbot.schedule.SchedulePollingPolicy;
+import net.dynv6.hut512.plenumbot.schedule.render.EncodedImage;
+import net.dynv6.hut512.plenumbot.schedule.render.ImageBufferPool;
+import net.dynv6.hut512.plenumbot.schedule.render.ImageFormat;
+import net.dynv6.hut512.plenumbot.schedule.render.RenderCache;
 import net.dynv6.hut512.plenumbot.schedule.render.ScheduleRenderManagers;
 import net.dynv6.hut512.plenumbot.schedule.source.ScheduleSourceManagers;
 import net.dynv6.hut512.plenumbot.sql.GuildConfig;
+import net.dynv6.hut512.plenumbot.sql.ScheduleMessage;
+import net.dynv6.hut512.plenumbot.util.CircuitBreaker;
 import net.dynv6.hut512.plenumbot.util.TranslationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 public class ScheduleInfoUpdater {
     private static final Logger LOGGER = LoggerFactory.getLogger(ScheduleInfoUpdater.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final long MEGABYTE = 1024 * 1024;
+    // Used instead of the image format in the fingerprints of embed renders
+    private static final String EMBED_FORMAT = "embed";
 
-    private final Timer timer;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService fetchExecutor;
+    private final ExecutorService renderExecutor;
     private final ScheduleInfoManager scheduleInfoManager;
+    private final Set<Long> pendingGuilds;
+    private final Map<Long, Instant> nextUpdates;
+    private final SchedulePollingPolicy pollingPolicy;
+    private final CircuitBreaker<Long> guildBreakers;
 
     public ScheduleInfoUpdater() {
-        this.timer = new Timer("ScheduleInfo info update timer");
-        this.timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                updateScheduleInfo();
-            }
-        }, 0, TimeUnit.HOURS.toMillis(1));
-        this.scheduleInfoManager = new ScheduleInfoManager();
-        ScheduleRenderManagers.registerRenders(this.scheduleInfoManager);
-        ScheduleSourceManagers.registerSources(this.scheduleInfoManager);
+        Properties config = PlenumBot.getInstance().getConfig();
+        String renderCacheDirectory = config.getProperty("SCHEDULE_RENDER_CACHE_DIR", "");
+        int renderThreads = Integer.parseInt(config.getProperty("SCHEDULE_RENDER_THREADS", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        RenderCache renderCache = new RenderCache(MEGABYTE * Long.parseLong(config.getProperty("SCHEDULE_RENDER_CACHE_SIZE", "64")),
+                renderCacheDirectory.isEmpty() ? null : Path.of(renderCacheDirectory),
+                MEGABYTE * Long.parseLong(config.getProperty("SCHEDULE_RENDER_CACHE_DIR_SIZE", "512")), renderThreads);
+        this.scheduleInfoManager = new ScheduleInfoManager(Integer.parseInt(config.getProperty("SCHEDULE_SNAPSHOT_CACHE_SIZE", "256")),
+                Duration.ofSeconds(Long.parseLong(config.getProperty("SCHEDULE_SOURCE_LOAD_RETENTION", "300"))), renderCache, new ImageBufferPool(renderThreads));
+        ZoneId zone = ZoneId.of(config.getProperty("SCHEDULE_TIME_ZONE", "Europe/Berlin"));
+        ScheduleRenderManagers.registerRenders(this.scheduleInfoManager, zone);
+        ScheduleSourceManagers.registerSources(this.scheduleInfoManager, config);
+        GuildConfig.addChangeListener(GuildConfig.Config.SCHEDULE_INFO_OPTIONS, this::onOptionsChange);
+        GuildConfig.addChangeListener(GuildConfig.Config.SCHEDULE_INFO_RENDER_MANAGER, (guild, oldValue, newValue) -> onSettingsChange(guild));
+        GuildConfig.addChangeListener(GuildConfig.Config.SCHEDULE_INFO_SOURCE_MANAGER, (guild, oldValue, newValue) -> onSettingsChange(guild));
+        GuildConfig.addChangeListener(GuildConfig.Config.SCHEDULE_INFO_CHANNEL_ID, (guild, oldValue, newValue) -> {
+            onSettingsChange(guild);
+            scheduleInfoManager.clearRendered(guild);
+        });
+        JDA jda = PlenumBot.getInstance().getJda();
+        jda.addEventListener(new ScheduleInfoListener(this.scheduleInfoManager, this));
+        this.scheduleInfoManager.warmUp(jda.getGuilds().stream().map(Guild::getIdLong).toList());
+        this.pendingGuilds = ConcurrentHashMap.newKeySet();
+        this.nextUpdates = new ConcurrentHashMap<>();
+        this.pollingPolicy = new SchedulePollingPolicy(zone);
+        this.guildBreakers = new CircuitBreaker<>(1);
+        this.fetchExecutor = createExecutor("ScheduleInfo fetch thread",
+                Integer.parseInt(config.getProperty("SCHEDULE_FETCH_THREADS", "16")));
+        this.renderExecutor = createExecutor("ScheduleInfo render thread", renderThreads);
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "ScheduleInfo info update timer"));
+        this.timer.scheduleWithFixedDelay(this::updateScheduleInfo, 0, 1, TimeUnit.MINUTES);
+    }
+
+    private static ExecutorService createExecutor(String name, int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + " " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     private void updateScheduleInfo() {
-        for (Guild guild : PlenumBot.getInstance().getJda().getGuilds()) {
-            TextChannel channel = guild.getTextChannelById(GuildConfig.getConfig(guild.getIdLong(), GuildConfig.Config.SCHEDULE_INFO_CHANNEL_ID));
-            if (channel == null) continue;
+        try {
+            Instant now = Instant.now();
+            List<Guild> guilds = PlenumBot.getInstance().getJda().getGuilds();
+            Set<Long> guildIds = guilds.stream().map(Guild::getIdLong).collect(Collectors.toSet());
+            nextUpdates.keySet().retainAll(guildIds);
+            guildBreakers.retainAll(guildIds);
 
-            try {
-                ObjectNode options = (ObjectNode) new ObjectMapper().readTree(GuildConfig.getConfig(guild.getIdLong(), GuildConfig.Config.SCHEDULE_INFO_OPTIONS));
-                options.put("language", GuildConfig.getConfig(guild.getIdLong(), GuildConfig.Config.LANGUAGE));
+            for (Guild guild : guilds) {
+                Instant nextUpdate = nextUpdates.get(guild.getIdLong());
+                if (nextUpdate != null && nextUpdate.isAfter(now)) continue;
 
-                BufferedImage img = scheduleInfoManager.createScheduleInfoImage(guild.getIdLong(),
-                        GuildConfig.getConfig(guild.getIdLong(), GuildConfig.Config.SCHEDULE_INFO_RENDER_MANAGER),
-                        GuildConfig.getConfig(guild.getIdLong(), GuildConfig.Config.SCHEDULE_INFO_SOURCE_MANAGER),
-                        options);
+                // A guild whose previous update is still running (e.g. a slow portal) is skipped for this cycle
+                if (!pendingGuilds.add(guild.getIdLong())) continue;
 
-                if (img == null) continue;
+                CompletableFuture.supplyAsync(() -> fetch(guild), fetchExecutor)
+                        .thenApplyAsync(this::render, renderExecutor)
+                        .thenCompose(this::upload)
+                        .whenComplete((result, e) -> {
+                            if (e != null) LOGGER.error("Could not update scheduleInfo of guild " + guild.getId(), e);
+                            scheduleNextUpdate(guild.getIdLong());
+                            pendingGuilds.remove(guild.getIdLong());
+                        });
+            }
+            LOGGER.debug("SQL connection pool: " + Statement.getPool());
+            if (Statement.getReadPool() != Statement.getPool()) LOGGER.debug("SQL read connection pool: " + Statement.getReadPool());
+        } catch (RuntimeException e) {
+            // Must not escape, the timer would cancel all further cycles otherwise
+            LOGGER.error("Could not start scheduleInfo update cycle", e);
+        }
+    }
 
-                channel.getHistory().retrievePast(100).complete().stream()
-                        .filter(msg -> msg.getAuthor().getIdLong() == msg.getJDA().getSelfUser().getIdLong())
-                        .findFirst()
-                        .ifPresent(msg -> msg.delete().queue());
+    /**
+     * Guilds whose last load failed are not polled again before their backoff has passed.
+     */
+    private void scheduleNextUpdate(long guild) {
+        try {
+            Instant nextUpdate = pollingPolicy.nextPoll(scheduleInfoManager.getLastScheduleInfo(guild), Instant.now());
+            Instant retryAt = guildBreakers.getRetryAt(guild);
+            nextUpdates.put(guild, retryAt != null && retryAt.isAfter(nextUpdate) ? retryAt : nextUpdate);
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not schedule next scheduleInfo update of guild " + guild, e);
+            nextUpdates.put(guild, Instant.now().plus(1, ChronoUnit.HOURS));
+        }
+    }
 
-                String format = GuildConfig.getConfig(guild.getIdLong(), GuildConfig.Config.SCHEDULE_INFO_IMAGE_FORMAT);
+    /**
+     * The guild may have fixed what made it fail, so it is updated in the next cycle regardless of its backoff.
+     */
+    private void onSettingsChange(long guild) {
+        nextUpdates.remove(guild);
+        guildBreakers.recordSuccess(guild);
+    }
+
+    /**
+     * Posts the guild's schedule again in the next cycle, e.g. after its message was deleted by hand.
+     */
+    public void repost(long guild) {
+        scheduleInfoManager.clearRendered(guild);
+        nextUpdates.remove(guild);
+    }
 
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                ImageIO.write(img, format, out);
-                channel.sendFiles(FileUpload.fromData(out.toByteArray(), "schedule." + format)).queue();
-            } catch (IOException e) {
-                LOGGER.error("Nachricht", e);
-                channel.sendMessage(TranslationService.getMessage("unknownError", guild.getIdLong())).queue();
+    private void onOptionsChange(long guild, String oldOptions, String newOptions) {
+        onSettingsChange(guild);
+        try {
+            if (OBJECT_MAPPER.readTree(oldOptions) instanceof ObjectNode options) {
+                scheduleInfoManager.invalidateSources(options);
             }
+        } catch (IOException e) {
+            LOGGER.debug("Could not parse old scheduleInfo options of guild " + guild, e);
         }
     }
 
+    private UpdateTask fetch(Guild guild) {
+        GuildConfig.Snapshot config = GuildConfig.getSnapshot(guild.getIdLong());
+        TextChannel channel = guild.getTextChannelById(config.get(GuildConfig.Config.SCHEDULE_INFO_CHANNEL_ID));
+        if (channel == null) return null;
+
+        UpdateTask task = new UpdateTask(guild, channel);
+        task.renderManagerName = config.get(GuildConfig.Config.SCHEDULE_INFO_RENDER_MANAGER);
+        task.embed = scheduleInfoManager.isEmbedRenderer(task.renderManagerName);
+        if (!task.embed) {
+            task.format = ImageFormat.of(config.get(GuildConfig.Config.SCHEDULE_INFO_IMAGE_FORMAT),
+                    config.get(GuildConfig.Config.SCHEDULE_INFO_PNG_COMPRESSION_LEVEL),
+                    config.get(GuildConfig.Config.SCHEDULE_INFO_PNG_FILTER));
+        }
+        task.formatKey = task.embed ? EMBED_FORMAT : task.format.getKey();
+
+        try {
+            task.options = parseOptions(guild.getIdLong(), config.get(GuildConfig.Config.SCHEDULE_INFO_OPTIONS), config.get(GuildConfig.Config.LANGUAGE));
+            task.options.put("language", config.get(GuildConfig.Config.LANGUAGE));
+            task.scheduleInfo = scheduleInfoManager.loadScheduleInfo(task.renderManagerName,
+                    config.get(GuildConfig.Config.SCHEDULE_INFO_SOURCE_MANAGER),
+                    task.options);
+            guildBreakers.recordSuccess(guild.getIdLong());
+        } catch (ScheduleInfoException e) {
+            task.errorMessage = e.getMessage();
+            ScheduleInfoException.Reason reason = e.getReason();
+            if (reason != ScheduleInfoException.Reason.SOURCE_UNAVAILABLE) {
+                guildBreakers.recordFailure(guild.getIdLong(), reason.getBaseBackoff(), reason.getMaxBackoff(), Instant.now());
+            }
+        }
+        return task;
+    }
+
+    private static ObjectNode parseOptions(long guild, String options, String language) throws ScheduleInfoException {
+        try {
+            if (OBJECT_MAPPER.readTree(options) instanceof ObjectNode objectNode) return objectNode;
+        } catch (IOException e) {
+            LOGGER.debug("Could not parse scheduleInfo options of guild " + guild, e);
+        }
+        throw new ScheduleInfoException(ScheduleInfoException.Reason.CONFIGURATION, TranslationService.getMessage("invalidOptionsError", language));
+    }
+
+    private UpdateTask render(UpdateTask task) {
+        if (task == null) return null;
+
+        long guild = task.guild.getIdLong();
+        try {
+            if (task.scheduleInfo == null) {
+                task.fingerprint = scheduleInfoManager.createErrorFingerprint(task.errorMessage, task.formatKey);
+                if (scheduleInfoManager.isRendered(guild, task.fingerprint)) return null;
+                if (task.embed) task.messageEmbed = scheduleInfoManager.createErrorEmbed(task.errorMessage);
+                else task.data = scheduleInfoManager.createErrorImage(task.fingerprint, task.errorMessage, task.format);
+            } else {
+                task.fingerprint = scheduleInfoManager.createFingerprint(task.renderManagerName, task.scheduleInfo, task.options, task.formatKey);
+                if (scheduleInfoManager.isRendered(guild, task.fingerprint)) return null;
+                if (task.embed) task.messageEmbed = scheduleInfoManager.createScheduleEmbed(guild, task.renderManagerName, task.scheduleInfo, task.options);
+                else task.data = scheduleInfoManager.createScheduleImage(guild, task.fingerprint, task.renderManagerName, task.scheduleInfo, task.options, task.format);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Could not render scheduleInfo of guild " + guild, e);
+            task.channel.sendMessage(TranslationService.getMessage("unknownError", guild)).queue();
+            return null;
+        }
+
+        return task;
+    }
+
+    /**
+     * Replaces the attachment or embed of the previously posted message in place. A new message is only sent if there is
+     * none yet, it was deleted or the channel changed.
+     */
+    private CompletableFuture<?> upload(UpdateTask task) {
+        if (task == null) return CompletableFuture.completedFuture(null);
+
+        ScheduleMessage posted = ScheduleMessage.getMessage(task.guild.getIdLong());
+        CompletableFuture<Message> upload;
+        if (posted == null) {
+            upload = deleteLegacyMessage(task.channel).thenCompose(v -> sendMessage(task));
+        } else if (posted.getChannel() != task.channel.getIdLong()) {
+            TextChannel oldChannel = task.guild.getTextChannelById(posted.getChannel());
+            if (oldChannel != null)
+                oldChannel.deleteMessageById(posted.getMessage()).queue(null, ErrorResponseException.ignore(ErrorResponse.UNKNOWN_MESSAGE));
+            upload = sendMessage(task);
+        } else {
+            upload = task.channel.editMessageById(posted.getMessage(), createEditData(task)).submit()
+                    .exceptionallyCompose(e -> isUnknownMessage(e) ? sendMessage(task) : CompletableFuture.failedFuture(e));
+        }
+
+        return upload.thenAccept(msg -> {
+            ScheduleMessage.updateMessage(task.guild.getIdLong(), msg.getChannel().getIdLong(), msg.getIdLong());
+            scheduleInfoManager.markRendered(task.guild.getIdLong(), task.fingerprint);
+        });
+    }
+
+    private CompletableFuture<Message> sendMessage(UpdateTask task) {
+        MessageCreateBuilder message = new MessageCreateBuilder();
+        if (task.embed) message.setEmbeds(task.messageEmbed);
+        else message.setFiles(createFileUpload(task));
+        return task.channel.sendMessage(message.build()).submit();
+    }
+
+    /**
+     * Replaces the whole message, so switching between image and embed renderers drops the old content.
+     */
+    private MessageEditData createEditData(UpdateTask task) {
+        MessageEditBuilder message = new MessageEditBuilder().setReplace(true);
+        if (task.embed) message.setEmbeds(task.messageEmbed);
+        else message.setFiles(createFileUpload(task));
+        return message.build();
+    }
+
+    private FileUpload createFileUpload(UpdateTask task) {
+        return task.data.toFileUpload("schedule." + task.format.getName());
+    }
+
+    /**
+     * Messages posted before their ids were stored can only be found through the channel history.
+     */
+    private CompletableFuture<Void> deleteLegacyMessage(TextChannel channel) {
+        return channel.getHistory().retrievePast(100).submit()
+                .thenAccept(history -> history.stream()
+                        .filter(msg -> msg.getAuthor().getIdLong() == msg.getJDA().getSelfUser().getIdLong())
+                        .findFirst()
+                        .ifPresent(msg -> msg.delete().queue()));
+    }
+
+    private static boolean isUnknownMessage(Throwable e) {
+        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+        return cause instanceof ErrorResponseException errorResponse && errorResponse.getErrorResponse() == ErrorResponse.UNKNOWN_MESSAGE;
+    }
+
     public void shutdown() {
-        this.timer.cancel();
+        this.timer.shutdownNow();
+        this.fetchExecutor.shutdownNow();
+        this.renderExecutor.shutdownNow();
         this.scheduleInfoManager.shutdown();
     }
+
+    @RequiredArgsConstructor
+    private static class UpdateTask {
+        private final Guild guild;
+        private final TextChannel channel;
+
+        private ObjectNode options;
+        private String renderManagerName;
+        private boolean embed;
+        private ImageFormat format;
+        private String formatKey;
+        private ScheduleInfo scheduleInfo;
+        private String errorMessage;
+        private String fingerprint;
+        private EncodedImage data;
+        private MessageEmbed messageEmbed;
+    }
 }
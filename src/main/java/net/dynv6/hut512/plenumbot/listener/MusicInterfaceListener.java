@@ -37,6 +37,7 @@ import net.dynv6.hut512.plenumbot.sql.GuildConfig;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -49,17 +50,23 @@ public class MusicInterfaceListener extends ListenerAdapter {
 
     @Override
     public void onReady(@NotNull ReadyEvent event) {
-        for (Guild guild : PlenumBot.getInstance().getJda().getGuilds()) {
-            createMusicInterface(guild);
+        List<Guild> guilds = PlenumBot.getInstance().getJda().getGuilds();
+        Map<Long, GuildConfig.Snapshot> configs = GuildConfig.loadSnapshots(guilds.stream().map(Guild::getIdLong).toList());
+        for (Guild guild : guilds) {
+            createMusicInterface(guild, configs.get(guild.getIdLong()));
         }
     }
 
     public void createMusicInterface(Guild guild) {
-        String channelIdStr = GuildConfig.getConfig(guild.getIdLong(), GuildConfig.Config.MUSIC_INTERFACE_CHANNEL_ID);
+        createMusicInterface(guild, GuildConfig.getSnapshot(guild.getIdLong()));
+    }
+
+    private void createMusicInterface(Guild guild, GuildConfig.Snapshot config) {
+        String channelIdStr = config.get(GuildConfig.Config.MUSIC_INTERFACE_CHANNEL_ID);
         if (channelIdStr.equals("0")) return;
         musicInterfaces.put(guild.getIdLong(),
                 new MusicInterface(guild.getIdLong(), Long.parseLong(channelIdStr),
-                        GuildConfig.getConfig(guild.getIdLong(), GuildConfig.Config.MUSIC_INTERFACE_SHOULD_CLEAR_CHANNEL)));
+                        config.get(GuildConfig.Config.MUSIC_INTERFACE_SHOULD_CLEAR_CHANNEL)));
     }
 
     @SuppressWarnings("DataFlowIssue")
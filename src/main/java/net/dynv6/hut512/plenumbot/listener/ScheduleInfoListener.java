@@ -0,0 +1,53 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.listener;
+
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.api.events.message.MessageDeleteEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import net.dynv6.hut512.plenumbot.ScheduleInfoUpdater;
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfoManager;
+import net.dynv6.hut512.plenumbot.sql.ScheduleMessage;
+import org.jetbrains.annotations.NotNull;
+
+public class ScheduleInfoListener extends ListenerAdapter {
+    private final ScheduleInfoManager scheduleInfoManager;
+    private final ScheduleInfoUpdater scheduleInfoUpdater;
+
+    public ScheduleInfoListener(ScheduleInfoManager scheduleInfoManager, ScheduleInfoUpdater scheduleInfoUpdater) {
+        this.scheduleInfoManager = scheduleInfoManager;
+        this.scheduleInfoUpdater = scheduleInfoUpdater;
+    }
+
+    @Override
+    public void onGuildLeave(@NotNull GuildLeaveEvent event) {
+        scheduleInfoManager.removeGuild(event.getGuild().getIdLong());
+        ScheduleMessage.deleteMessage(event.getGuild().getIdLong());
+    }
+
+    @Override
+    public void onMessageDelete(@NotNull MessageDeleteEvent event) {
+        if (!event.isFromGuild()) return;
+
+        ScheduleMessage posted = ScheduleMessage.getMessage(event.getGuild().getIdLong());
+        // The stored message stays, editing it fails as unknown and a new one is sent instead
+        if (posted != null && posted.getMessage() == event.getMessageIdLong()) scheduleInfoUpdater.repost(event.getGuild().getIdLong());
+    }
+}
@@ -23,11 +23,13 @@ import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import lombok.ToString;
+import net.dynv6.hut512.plenumbot.util.HashUtil;
 import org.jetbrains.annotations.Nullable;
 
 import java.time.DayOfWeek;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.HashMap;
 import java.util.Map;
 
 @ToString
@@ -35,10 +37,48 @@ import java.util.Map;
 @Setter
 @RequiredArgsConstructor
 public class ScheduleInfo {
+    private static final char FIELD_SEPARATOR = '\u001F';
+
     private LocalDateTime lastUpdate;
     private final LocalTime[][] schoolHours;
     private final Map<DayOfWeek, Lesson[]> lessons;
 
+    /**
+     * Hashes everything a renderer can show, so equal fingerprints mean equal renders.
+     */
+    public String fingerprint() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(lastUpdate).append(FIELD_SEPARATOR);
+        for (LocalTime[] schoolHour : schoolHours) {
+            sb.append(schoolHour[0]).append('-').append(schoolHour[1]).append(FIELD_SEPARATOR);
+        }
+        for (DayOfWeek day : DayOfWeek.values()) {
+            Lesson[] lessonsOfDay = lessons.get(day);
+            if (lessonsOfDay == null) continue;
+            sb.append(day).append(FIELD_SEPARATOR);
+            for (Lesson lesson : lessonsOfDay) {
+                if (lesson != null) lesson.appendFingerprint(sb);
+                sb.append(FIELD_SEPARATOR);
+            }
+        }
+        return HashUtil.sha256(sb.toString());
+    }
+
+    public ScheduleInfo copy() {
+        Map<DayOfWeek, Lesson[]> lessonsCopy = new HashMap<>();
+        lessons.forEach((day, lessonsOfDay) -> {
+            Lesson[] lessonsOfDayCopy = new Lesson[lessonsOfDay.length];
+            for (int i = 0; i < lessonsOfDay.length; i++) {
+                if (lessonsOfDay[i] != null) lessonsOfDayCopy[i] = lessonsOfDay[i].copy();
+            }
+            lessonsCopy.put(day, lessonsOfDayCopy);
+        });
+
+        ScheduleInfo copy = new ScheduleInfo(schoolHours, lessonsCopy);
+        copy.setLastUpdate(lastUpdate);
+        return copy;
+    }
+
     @Getter
     @Setter
     @RequiredArgsConstructor
@@ -55,5 +95,20 @@ public class ScheduleInfo {
         private String substituteTeacher;
         @Nullable
         private String info;
+
+        private void appendFingerprint(StringBuilder sb) {
+            for (String field : new String[]{subject, room, teacher, substituteSubject, substituteRoom, substituteTeacher, info}) {
+                sb.append(field).append(FIELD_SEPARATOR);
+            }
+        }
+
+        public Lesson copy() {
+            Lesson copy = new Lesson(subject, room, teacher);
+            copy.setSubstituteSubject(substituteSubject);
+            copy.setSubstituteRoom(substituteRoom);
+            copy.setSubstituteTeacher(substituteTeacher);
+            copy.setInfo(info);
+            return copy;
+        }
     }
 }
\ No newline at end of file
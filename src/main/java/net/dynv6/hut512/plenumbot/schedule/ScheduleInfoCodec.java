@@ -0,0 +1,142 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.schedule;
+
+import lombok.experimental.UtilityClass;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary form of {@link ScheduleInfo}. Lessons only store the fields that are set, flagged by a bitmask.
+ */
+@UtilityClass
+public class ScheduleInfoCodec {
+    private final byte VERSION = 1;
+    private final long NO_DATE = Long.MIN_VALUE;
+    private final int NO_TIME = -1;
+    private final int LESSON_PRESENT = 1 << 7;
+
+    public byte[] encode(ScheduleInfo scheduleInfo) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeLong(scheduleInfo.getLastUpdate() == null ? NO_DATE : scheduleInfo.getLastUpdate().toEpochSecond(ZoneOffset.UTC));
+
+            LocalTime[][] schoolHours = scheduleInfo.getSchoolHours();
+            out.writeShort(schoolHours.length);
+            for (LocalTime[] schoolHour : schoolHours) {
+                out.writeInt(schoolHour[0] == null ? NO_TIME : schoolHour[0].toSecondOfDay());
+                out.writeInt(schoolHour[1] == null ? NO_TIME : schoolHour[1].toSecondOfDay());
+            }
+
+            out.writeByte(scheduleInfo.getLessons().size());
+            for (Map.Entry<DayOfWeek, ScheduleInfo.Lesson[]> lessonsOfDay : scheduleInfo.getLessons().entrySet()) {
+                out.writeByte(lessonsOfDay.getKey().getValue());
+                out.writeShort(lessonsOfDay.getValue().length);
+                for (ScheduleInfo.Lesson lesson : lessonsOfDay.getValue()) {
+                    writeLesson(out, lesson);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public ScheduleInfo decode(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte version = data.readByte();
+        if (version != VERSION) throw new IOException("Unknown snapshot version " + version);
+
+        long lastUpdate = data.readLong();
+
+        LocalTime[][] schoolHours = new LocalTime[data.readShort()][];
+        for (int i = 0; i < schoolHours.length; i++) {
+            schoolHours[i] = new LocalTime[]{readTime(data), readTime(data)};
+        }
+
+        int days = data.readByte();
+        Map<DayOfWeek, ScheduleInfo.Lesson[]> lessons = new HashMap<>();
+        for (int i = 0; i < days; i++) {
+            DayOfWeek day = DayOfWeek.of(data.readByte());
+            ScheduleInfo.Lesson[] lessonsOfDay = new ScheduleInfo.Lesson[data.readShort()];
+            for (int j = 0; j < lessonsOfDay.length; j++) {
+                lessonsOfDay[j] = readLesson(data);
+            }
+            lessons.put(day, lessonsOfDay);
+        }
+
+        ScheduleInfo scheduleInfo = new ScheduleInfo(schoolHours, lessons);
+        if (lastUpdate != NO_DATE) scheduleInfo.setLastUpdate(LocalDateTime.ofEpochSecond(lastUpdate, 0, ZoneOffset.UTC));
+        return scheduleInfo;
+    }
+
+    private void writeLesson(DataOutputStream out, ScheduleInfo.Lesson lesson) throws IOException {
+        if (lesson == null) {
+            out.writeByte(0);
+            return;
+        }
+
+        String[] fields = {lesson.getSubject(), lesson.getRoom(), lesson.getTeacher(), lesson.getSubstituteSubject(),
+                lesson.getSubstituteRoom(), lesson.getSubstituteTeacher(), lesson.getInfo()};
+        int flags = LESSON_PRESENT;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) flags |= 1 << i;
+        }
+
+        out.writeByte(flags);
+        for (String field : fields) {
+            if (field != null) out.writeUTF(field);
+        }
+    }
+
+    private ScheduleInfo.Lesson readLesson(DataInputStream in) throws IOException {
+        int flags = in.readUnsignedByte();
+        if ((flags & LESSON_PRESENT) == 0) return null;
+
+        String[] fields = new String[7];
+        for (int i = 0; i < fields.length; i++) {
+            if ((flags & 1 << i) != 0) fields[i] = in.readUTF();
+        }
+
+        ScheduleInfo.Lesson lesson = new ScheduleInfo.Lesson(fields[0], fields[1], fields[2]);
+        lesson.setSubstituteSubject(fields[3]);
+        lesson.setSubstituteRoom(fields[4]);
+        lesson.setSubstituteTeacher(fields[5]);
+        lesson.setInfo(fields[6]);
+        return lesson;
+    }
+
+    private LocalTime readTime(DataInputStream in) throws IOException {
+        int secondOfDay = in.readInt();
+        return secondOfDay == NO_TIME ? null : LocalTime.ofSecondOfDay(secondOfDay);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.schedule;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.time.Duration;
+
+/**
+ * Thrown when no {@link ScheduleInfo} could be loaded for a guild. The message is already translated
+ * and is meant to be shown to the guild as an error image.
+ */
+@Getter
+public class ScheduleInfoException extends Exception {
+    private final Reason reason;
+
+    public ScheduleInfoException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public ScheduleInfoException(Reason reason, String message, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+
+    /**
+     * Why loading failed and how long to back off before trying again. Failures that only need the guild to
+     * change its settings back off the longest.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public enum Reason {
+        CONFIGURATION(Duration.ofHours(1), Duration.ofDays(1)),
+        INVALID_CREDENTIALS(Duration.ofMinutes(30), Duration.ofDays(1)),
+        IO(Duration.ofMinutes(2), Duration.ofHours(1)),
+        PARSE(Duration.ofMinutes(15), Duration.ofHours(6)),
+        // The source's circuit is open, the guild itself is not at fault
+        SOURCE_UNAVAILABLE(Duration.ZERO, Duration.ZERO);
+
+        private final Duration baseBackoff;
+        private final Duration maxBackoff;
+    }
+}
@@ -20,30 +20,69 @@
 package net.dynv6.hut512.plenumbot.schedule;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Getter;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dynv6.hut512.plenumbot.schedule.render.EmbedScheduleRenderManager;
+import net.dynv6.hut512.plenumbot.schedule.render.EncodedImage;
+import net.dynv6.hut512.plenumbot.schedule.render.ImageBufferPool;
+import net.dynv6.hut512.plenumbot.schedule.render.ImageFormat;
+import net.dynv6.hut512.plenumbot.schedule.render.ImageScheduleRenderManager;
+import net.dynv6.hut512.plenumbot.schedule.render.PngEncoder;
+import net.dynv6.hut512.plenumbot.schedule.render.RenderCache;
 import net.dynv6.hut512.plenumbot.schedule.render.ScheduleRenderManager;
+import net.dynv6.hut512.plenumbot.schedule.source.ScheduleParseException;
 import net.dynv6.hut512.plenumbot.schedule.source.ScheduleSourceManager;
+import net.dynv6.hut512.plenumbot.sql.ScheduleFingerprint;
+import net.dynv6.hut512.plenumbot.util.CircuitBreaker;
+import net.dynv6.hut512.plenumbot.util.HashUtil;
+import net.dynv6.hut512.plenumbot.util.SingleFlight;
 import net.dynv6.hut512.plenumbot.util.TranslationService;
 import org.apache.http.auth.InvalidCredentialsException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ScheduleInfoManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(ScheduleInfoManager.class);
+    // Consecutive failures across all guilds before a source is paused
+    private static final int SOURCE_FAILURE_THRESHOLD = 5;
 
     private final Map<String, ScheduleRenderManager> renderManagers;
     private final Map<String, ScheduleSourceManager> sourceManagers;
-    private final Map<Long, ScheduleInfo> oldScheduleInfos;
+    private final ScheduleSnapshotStore snapshots;
+    private final SingleFlight<String, ScheduleInfo> sourceLoads;
+    private final CircuitBreaker<String> sourceBreakers;
+    private final Map<Long, String> renderedFingerprints;
+    private final RenderCache renderCache;
+    @Getter
+    private final ImageBufferPool imageBufferPool;
 
-    public ScheduleInfoManager() {
+    /**
+     * @param sourceLoadRetention how long a loaded schedule is handed out again to guilds with the same source options
+     */
+    public ScheduleInfoManager(int snapshotCacheSize, Duration sourceLoadRetention, RenderCache renderCache, ImageBufferPool imageBufferPool) {
         this.renderManagers = new HashMap<>();
         this.sourceManagers = new HashMap<>();
-        this.oldScheduleInfos = new HashMap<>();
+        this.snapshots = new ScheduleSnapshotStore(snapshotCacheSize);
+        this.sourceLoads = new SingleFlight<>(sourceLoadRetention);
+        this.sourceBreakers = new CircuitBreaker<>(SOURCE_FAILURE_THRESHOLD);
+        this.renderedFingerprints = new ConcurrentHashMap<>();
+        this.renderCache = renderCache;
+        this.imageBufferPool = imageBufferPool;
     }
 
     public void registerRenderManager(ScheduleRenderManager renderManager) {
@@ -54,40 +93,209 @@ public class ScheduleInfoManager {
         this.sourceManagers.put(sourceManager.getName(), sourceManager);
     }
 
-    public BufferedImage createScheduleInfoImage(long guild, String renderManagerName, String sourceManagerName, ObjectNode options) {
-        ScheduleRenderManager renderManager = this.renderManagers.get(renderManagerName);
-        ScheduleSourceManager sourceManager = this.sourceManagers.get(sourceManagerName);
+    public ScheduleInfo loadScheduleInfo(String renderManagerName, String sourceManagerName, ObjectNode options) throws ScheduleInfoException {
+        String language = options.get("language").asText();
 
-        if (renderManager == null) {
-            return createErrorImage(TranslationService.getMessage("invalidValueError", options.get("language").asText(), "Renderer", renderManagerName));
+        if (!this.renderManagers.containsKey(renderManagerName)) {
+            throw new ScheduleInfoException(ScheduleInfoException.Reason.CONFIGURATION,
+                    TranslationService.getMessage("invalidValueError", language, "Renderer", renderManagerName));
         }
 
+        ScheduleSourceManager sourceManager = this.sourceManagers.get(sourceManagerName);
+
         if (sourceManager == null) {
-            return createErrorImage(TranslationService.getMessage("invalidValueError", options.get("language").asText(), "SourceManager", sourceManagerName));
+            throw new ScheduleInfoException(ScheduleInfoException.Reason.CONFIGURATION,
+                    TranslationService.getMessage("invalidValueError", language, "SourceManager", sourceManagerName));
         }
 
-        ScheduleInfo scheduleInfo;
         try {
-            scheduleInfo = sourceManager.loadScheduleInfo(options);
-        } catch (InvalidCredentialsException e) {
-            LOGGER.debug("Invalid credentials for " + sourceManager.getName(), e);
-            return createErrorImage(TranslationService.getMessage("invalidCredentialsError", options.get("language").asText(), sourceManager.getName()));
+            return sourceLoads.execute(sourceKey(sourceManager, options), () -> loadFromSource(sourceManager, options)).join();
+        } catch (CompletionException e) {
+            throw unwrapSourceException(sourceManager, language, e);
+        }
+    }
+
+    /**
+     * Runs once per actual load, callers sharing the load neither pass the source's circuit breaker nor record to it.
+     */
+    private ScheduleInfo loadFromSource(ScheduleSourceManager sourceManager, ObjectNode options) throws Exception {
+        String sourceManagerName = sourceManager.getName();
+        if (!sourceBreakers.tryAcquire(sourceManagerName, Instant.now())) {
+            throw new ScheduleInfoException(ScheduleInfoException.Reason.SOURCE_UNAVAILABLE, sourceManagerName);
+        }
+
+        try {
+            ScheduleInfo scheduleInfo = sourceManager.loadScheduleInfo(options);
+            sourceBreakers.recordSuccess(sourceManagerName);
+            return scheduleInfo;
+        } catch (InvalidCredentialsException | ScheduleParseException | RuntimeException e) {
+            // The source answered, only the account's credentials or pages were the problem
+            sourceBreakers.recordSuccess(sourceManagerName);
+            throw e;
         } catch (IOException e) {
+            ScheduleInfoException.Reason reason = ScheduleInfoException.Reason.IO;
+            Instant retryAt = sourceBreakers.recordFailure(sourceManagerName, reason.getBaseBackoff(), reason.getMaxBackoff(), Instant.now());
+            if (retryAt.isAfter(Instant.now())) LOGGER.warn("Pausing " + sourceManagerName + " until " + retryAt + " after repeated failures");
+            throw e;
+        }
+    }
+
+    private ScheduleInfoException unwrapSourceException(ScheduleSourceManager sourceManager, String language, CompletionException exception) {
+        // Translated here, the load may have been started for a guild with another language
+        if (exception.getCause() instanceof ScheduleInfoException e) {
+            return new ScheduleInfoException(e.getReason(),
+                    TranslationService.getMessage("sourceUnavailableError", language, sourceManager.getName()));
+        }
+
+        if (exception.getCause() instanceof InvalidCredentialsException e) {
+            LOGGER.debug("Invalid credentials for " + sourceManager.getName(), e);
+            return new ScheduleInfoException(ScheduleInfoException.Reason.INVALID_CREDENTIALS,
+                    TranslationService.getMessage("invalidCredentialsError", language, sourceManager.getName()), e);
+        }
+
+        if (exception.getCause() instanceof ScheduleParseException e) {
+            LOGGER.warn("Could not parse scheduleInfo from " + sourceManager.getName(), e);
+            return new ScheduleInfoException(ScheduleInfoException.Reason.PARSE,
+                    TranslationService.getMessage("parseError", language, sourceManager.getName()), e);
+        }
+
+        if (exception.getCause() instanceof IOException e) {
             LOGGER.warn("Could not load scheduleInfo from " + sourceManager.getName(), e);
-            return createErrorImage(TranslationService.getMessage("unknownError", options.get("language").asText()));
+            return new ScheduleInfoException(ScheduleInfoException.Reason.IO, TranslationService.getMessage("unknownError", language), e);
+        }
+
+        // Sources that don't wrap their parser's exceptions
+        LOGGER.error("Unexpected error while loading scheduleInfo from " + sourceManager.getName(), exception.getCause());
+        return new ScheduleInfoException(ScheduleInfoException.Reason.PARSE,
+                TranslationService.getMessage("parseError", language, sourceManager.getName()), exception.getCause());
+    }
+
+    /**
+     * Guilds showing the same class with the same credentials share one source load. The language only
+     * affects rendering and is therefore not part of the key.
+     */
+    private static String sourceKey(ScheduleSourceManager sourceManager, ObjectNode options) {
+        ObjectNode sourceOptions = options.deepCopy();
+        sourceOptions.remove("language");
+        return sourceManager.getName() + ":" + HashUtil.sha256(sourceOptions);
+    }
+
+    /**
+     * Drops everything cached for the given source options, e.g. after a guild changed its credentials.
+     */
+    public void invalidateSources(ObjectNode options) {
+        for (ScheduleSourceManager sourceManager : this.sourceManagers.values()) {
+            sourceManager.invalidate(options);
+            sourceLoads.invalidate(sourceKey(sourceManager, options));
+        }
+    }
+
+    /**
+     * Embed renderers ignore the format, so guilds only differing in it share renders.
+     */
+    public boolean isEmbedRenderer(String renderManagerName) {
+        return this.renderManagers.get(renderManagerName) instanceof EmbedScheduleRenderManager;
+    }
+
+    public String createFingerprint(String renderManagerName, ScheduleInfo scheduleInfo, ObjectNode options, String format) {
+        ScheduleRenderManager renderManager = this.renderManagers.get(renderManagerName);
+        ObjectNode renderOptions = options.deepCopy().retain(renderManager == null ? Set.of() : renderManager.getOptionNames());
+        String renderState = renderManager == null ? "" : renderManager.getRenderState();
+        return HashUtil.sha256(scheduleInfo.fingerprint() + "\n" + renderManagerName + "\n" + HashUtil.sha256(renderOptions) + "\n" + renderState + "\n" + format);
+    }
+
+    public String createErrorFingerprint(String message, String format) {
+        return HashUtil.sha256("error\n" + message + "\n" + format);
+    }
+
+    /**
+     * Whether the guild already shows the render with this fingerprint. Persisted, so this holds across restarts.
+     */
+    public boolean isRendered(long guild, String fingerprint) {
+        return fingerprint.equals(renderedFingerprints.computeIfAbsent(guild, ScheduleFingerprint::getFingerprint));
+    }
+
+    public void markRendered(long guild, String fingerprint) {
+        ScheduleFingerprint.updateFingerprint(guild, fingerprint);
+        renderedFingerprints.put(guild, fingerprint);
+    }
+
+    /**
+     * Makes the next update post the guild's schedule again even if it did not change, e.g. after its message was lost.
+     */
+    public void clearRendered(long guild) {
+        renderedFingerprints.remove(guild);
+        ScheduleFingerprint.deleteFingerprint(guild);
+    }
+
+    public ScheduleInfo getLastScheduleInfo(long guild) {
+        return snapshots.get(guild);
+    }
+
+    public void warmUp(Collection<Long> guilds) {
+        snapshots.warm(guilds);
+    }
+
+    /**
+     * Forgets everything stored for a guild, e.g. after the bot left it.
+     */
+    public void removeGuild(long guild) {
+        snapshots.evict(guild);
+        clearRendered(guild);
+    }
+
+    /**
+     * Returns the encoded image with the given fingerprint, rendering it only if no guild rendered it before.
+     */
+    public EncodedImage createScheduleImage(long guild, String fingerprint, String renderManagerName, ScheduleInfo scheduleInfo, ObjectNode options, ImageFormat format) throws IOException {
+        if (!(this.renderManagers.get(renderManagerName) instanceof ImageScheduleRenderManager renderManager)) {
+            String message = TranslationService.getMessage("invalidValueError", options.get("language").asText(), "Renderer", renderManagerName);
+            return createErrorImage(createErrorFingerprint(message, format.getKey()), message, format);
         }
 
-        ScheduleInfo oldScheduleInfo = oldScheduleInfos.get(guild);
+        snapshots.put(guild, scheduleInfo);
 
-        oldScheduleInfos.put(guild, scheduleInfo);
+        return renderCache.get(fingerprint, out -> encodeImage(renderManager.render(scheduleInfo, options), format, out));
+    }
+
+    /**
+     * Renders the embed of an {@link EmbedScheduleRenderManager}, no image work is involved.
+     */
+    public MessageEmbed createScheduleEmbed(long guild, String renderManagerName, ScheduleInfo scheduleInfo, ObjectNode options) {
+        if (!(this.renderManagers.get(renderManagerName) instanceof EmbedScheduleRenderManager renderManager)) {
+            return createErrorEmbed(TranslationService.getMessage("invalidValueError", options.get("language").asText(), "Renderer", renderManagerName));
+        }
 
-        if (!renderManager.shouldReRender(oldScheduleInfo, scheduleInfo)) return null;
+        snapshots.put(guild, scheduleInfo);
 
-        return renderManager.render(scheduleInfo, options);
+        return renderManager.renderEmbed(scheduleInfo, options);
+    }
+
+    public MessageEmbed createErrorEmbed(String message) {
+        EmbedBuilder eb = new EmbedBuilder();
+        eb.setColor(Color.RED);
+        eb.setDescription(message);
+        return eb.build();
+    }
+
+    public EncodedImage createErrorImage(String fingerprint, String message, ImageFormat format) throws IOException {
+        return renderCache.get(fingerprint, out -> encodeImage(createErrorImage(message), format, out));
+    }
+
+    /**
+     * Encodes the image and hands it back to the pool afterwards.
+     */
+    private void encodeImage(BufferedImage image, ImageFormat format, OutputStream out) throws IOException {
+        try {
+            if (format.isPng() && new PngEncoder(format.getCompressionLevel(), format.getFilter()).encode(image, out)) return;
+            if (!ImageIO.write(image, format.getName(), out)) throw new IOException("No image writer for " + format.getName());
+        } finally {
+            imageBufferPool.release(image);
+        }
     }
 
     private BufferedImage createErrorImage(String message) {
-        BufferedImage image = new BufferedImage(400, 200, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage image = imageBufferPool.acquire(400, 200);
 
         Graphics2D g2d = image.createGraphics();
 
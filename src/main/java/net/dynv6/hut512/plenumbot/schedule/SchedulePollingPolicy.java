@@ -0,0 +1,114 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.schedule;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides when a guild is polled next. Substitutions are mostly published in the morning before school starts,
+ * so that window is polled densely while nights, days without lessons and holidays are polled rarely.
+ */
+public class SchedulePollingPolicy {
+    private static final Duration DEFAULT_INTERVAL = Duration.ofHours(1);
+    private static final Duration MORNING_WINDOW = Duration.ofHours(2);
+    private static final Duration MORNING_INTERVAL = Duration.ofMinutes(10);
+    private static final Duration SCHOOL_INTERVAL = Duration.ofMinutes(30);
+    private static final Duration OFF_HOURS_INTERVAL = Duration.ofHours(3);
+    private static final Duration HOLIDAY_INTERVAL = Duration.ofHours(6);
+    // Substitutions are edited on every school day, a longer silence means holidays
+    private static final Duration HOLIDAY_THRESHOLD = Duration.ofDays(4);
+    private static final double JITTER = 0.1;
+
+    private final ZoneId zone;
+
+    public SchedulePollingPolicy(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    public Instant nextPoll(@Nullable ScheduleInfo scheduleInfo, Instant now) {
+        LocalDateTime time = LocalDateTime.ofInstant(now, zone);
+
+        LocalTime start = scheduleInfo == null ? null : getSchoolStart(scheduleInfo);
+        if (start == null) return now.plus(jitter(DEFAULT_INTERVAL));
+
+        LocalTime end = getSchoolEnd(scheduleInfo);
+        boolean schoolDay = scheduleInfo.getLessons().containsKey(time.getDayOfWeek());
+        boolean holiday = scheduleInfo.getLastUpdate() != null && scheduleInfo.getLastUpdate().isBefore(time.minus(HOLIDAY_THRESHOLD));
+        LocalDateTime schoolStart = time.toLocalDate().atTime(start);
+
+        Duration interval;
+        if (holiday) {
+            interval = HOLIDAY_INTERVAL;
+        } else if (schoolDay && !time.isBefore(schoolStart.minus(MORNING_WINDOW)) && time.isBefore(schoolStart)) {
+            interval = MORNING_INTERVAL;
+        } else if (schoolDay && !time.isBefore(schoolStart) && end != null && time.toLocalTime().isBefore(end)) {
+            interval = SCHOOL_INTERVAL;
+        } else {
+            interval = OFF_HOURS_INTERVAL;
+        }
+
+        LocalDateTime next = time.plus(jitter(interval));
+
+        // Never sleep through the start of the next morning window
+        LocalDateTime nextMorningWindow = getNextMorningWindow(scheduleInfo, start, time);
+        if (nextMorningWindow != null && next.isAfter(nextMorningWindow)) {
+            next = nextMorningWindow.plus(jitter(MORNING_INTERVAL).dividedBy(2));
+        }
+
+        return next.atZone(zone).toInstant();
+    }
+
+    @Nullable
+    private LocalDateTime getNextMorningWindow(ScheduleInfo scheduleInfo, LocalTime start, LocalDateTime time) {
+        for (int i = 0; i <= 7; i++) {
+            LocalDate date = time.toLocalDate().plusDays(i);
+            if (!scheduleInfo.getLessons().containsKey(date.getDayOfWeek())) continue;
+
+            LocalDateTime windowStart = date.atTime(start).minus(MORNING_WINDOW);
+            if (windowStart.isAfter(time)) return windowStart;
+        }
+        return null;
+    }
+
+    @Nullable
+    private static LocalTime getSchoolStart(ScheduleInfo scheduleInfo) {
+        LocalTime[][] schoolHours = scheduleInfo.getSchoolHours();
+        return schoolHours.length == 0 ? null : schoolHours[0][0];
+    }
+
+    @Nullable
+    private static LocalTime getSchoolEnd(ScheduleInfo scheduleInfo) {
+        LocalTime[][] schoolHours = scheduleInfo.getSchoolHours();
+        return schoolHours.length == 0 ? null : schoolHours[schoolHours.length - 1][1];
+    }
+
+    private static Duration jitter(Duration interval) {
+        double factor = 1 + JITTER * ThreadLocalRandom.current().nextDouble(-1, 1);
+        return Duration.ofMillis((long) (interval.toMillis() * factor));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.schedule;
+
+import net.dynv6.hut512.plenumbot.sql.ScheduleSnapshot;
+import net.dynv6.hut512.plenumbot.util.LruMap;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Last {@link ScheduleInfo} of every guild. All snapshots are persisted, only the recently used ones are kept in memory.
+ */
+public class ScheduleSnapshotStore {
+    private final Map<Long, ScheduleInfo> hotTier;
+    private final int hotTierSize;
+
+    public ScheduleSnapshotStore(int hotTierSize) {
+        this.hotTier = Collections.synchronizedMap(new LruMap<>(hotTierSize));
+        this.hotTierSize = hotTierSize;
+    }
+
+    public ScheduleInfo get(long guild) {
+        ScheduleInfo scheduleInfo = hotTier.get(guild);
+        if (scheduleInfo != null) return scheduleInfo;
+
+        scheduleInfo = ScheduleSnapshot.getSnapshot(guild);
+        if (scheduleInfo != null) hotTier.put(guild, scheduleInfo);
+        return scheduleInfo;
+    }
+
+    public void put(long guild, ScheduleInfo scheduleInfo) {
+        // Sources hand out the same instance while nothing changed, which does not need to be written again
+        if (hotTier.put(guild, scheduleInfo) == scheduleInfo) return;
+        ScheduleSnapshot.updateSnapshot(guild, scheduleInfo);
+    }
+
+    /**
+     * Loads the snapshots of the given guilds until the hot tier is full.
+     */
+    public void warm(Collection<Long> guilds) {
+        int loaded = 0;
+        for (long guild : guilds) {
+            if (loaded >= hotTierSize) break;
+            if (get(guild) != null) loaded++;
+        }
+    }
+
+    public void evict(long guild) {
+        hotTier.remove(guild);
+        ScheduleSnapshot.deleteSnapshot(guild);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.schedule.render;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.RequiredArgsConstructor;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dynv6.hut512.plenumbot.PlenumBot;
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfo;
+import net.dynv6.hut512.plenumbot.util.TranslationService;
+
+import java.awt.*;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.TextStyle;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Shows the lessons of today and the next school day as a Discord embed, substitutions are highlighted.
+ */
+@RequiredArgsConstructor
+public class DefaultEmbedScheduleRenderManager implements EmbedScheduleRenderManager {
+    private static final int DAYS = 2;
+    private static final String ELLIPSIS = "…";
+
+    private final ZoneId zone;
+
+    @Override
+    public void shutdown() {
+
+    }
+
+    @Override
+    public String getName() {
+        return "embed";
+    }
+
+    @Override
+    public Set<String> getOptionNames() {
+        return Set.of("language");
+    }
+
+    @Override
+    public String getRenderState() {
+        return LocalDate.now(zone).toString();
+    }
+
+    @Override
+    public MessageEmbed renderEmbed(ScheduleInfo scheduleInfo, ObjectNode options) {
+        String language = options.get("language").asText();
+        Locale locale = TranslationService.languageToLocale(language);
+
+        EmbedBuilder eb = new EmbedBuilder();
+        eb.setTitle(TranslationService.getMessage("scheduleTitle", language), PlenumBot.URL);
+        eb.setColor(Color.CYAN);
+
+        LocalDate day = LocalDate.now(zone);
+        int days = 0;
+        // Skips days without lessons, e.g. the weekend
+        for (int i = 0; i < 7 && days < DAYS; i++, day = day.plusDays(1)) {
+            ScheduleInfo.Lesson[] lessons = scheduleInfo.getLessons().get(day.getDayOfWeek());
+            if (lessons == null) continue;
+
+            eb.addField(day.getDayOfWeek().getDisplayName(TextStyle.FULL, locale), formatLessons(lessons, language), false);
+            days++;
+        }
+
+        eb.setFooter(TranslationService.getMessage("lastEdited", language, scheduleInfo.getLastUpdate()));
+        return eb.build();
+    }
+
+    private static String formatLessons(ScheduleInfo.Lesson[] lessons, String language) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lessons.length; i++) {
+            ScheduleInfo.Lesson lesson = lessons[i];
+            if (lesson == null) continue;
+
+            sb.append('`').append(i + 1).append(".` ");
+            if (lesson.getSubstituteSubject() == null) {
+                sb.append(lesson.getSubject());
+            } else {
+                sb.append("~~").append(lesson.getSubject()).append("~~ **").append(lesson.getSubstituteSubject()).append("**");
+            }
+
+            String room = lesson.getSubstituteRoom() == null ? lesson.getRoom() : "**" + lesson.getSubstituteRoom() + "**";
+            if (room != null && !room.isEmpty()) sb.append(" (").append(room).append(')');
+            if (lesson.getInfo() != null && !lesson.getInfo().isEmpty()) sb.append(" - *").append(lesson.getInfo()).append('*');
+            sb.append('\n');
+        }
+
+        if (sb.isEmpty()) return TranslationService.getMessage("scheduleNoLessons", language);
+        if (sb.length() <= MessageEmbed.VALUE_MAX_LENGTH) return sb.toString();
+
+        // Cut after a whole lesson, so no markdown is left open
+        int end = sb.lastIndexOf("\n", MessageEmbed.VALUE_MAX_LENGTH - ELLIPSIS.length() - 1);
+        return sb.substring(0, end + 1) + ELLIPSIS;
+    }
+}
@@ -20,21 +20,46 @@
 package net.dynv6.hut512.plenumbot.schedule.render;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.RequiredArgsConstructor;
 import net.dynv6.hut512.plenumbot.schedule.ScheduleInfo;
+import net.dynv6.hut512.plenumbot.util.LruMap;
 import net.dynv6.hut512.plenumbot.util.TranslationService;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.time.DayOfWeek;
 import java.time.format.TextStyle;
-
-public class DefaultScheduleRenderManager implements ScheduleRenderManager {
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+@RequiredArgsConstructor
+public class DefaultScheduleRenderManager implements ImageScheduleRenderManager {
     private static final int WIDTH = 1920;
     private static final int HEIGHT = 1080;
 
+    private static final int FOOTER_Y = HEIGHT / 20 + HEIGHT - HEIGHT / 5 + 1;
+    private static final Font FONT_FOOTER = new Font("Arial", Font.PLAIN, WIDTH / 160);
+
+    private static final int MAX_BACKGROUNDS = 32;
+    private static final int MAX_DELTA_STATES = 8;
+
+    // The grid, weekdays and lesson numbers only depend on the table size and the language
+    private final Map<String, BufferedImage> backgrounds = Collections.synchronizedMap(new LruMap<>(MAX_BACKGROUNDS));
+    // Each state holds a full raster, so only a few are kept. They are reused for whatever schedule is closest to
+    // their last render instead of being evicted, so no raster is allocated once all of them exist
+    private final List<DeltaState> deltaStates = new ArrayList<>();
+    private final ImageBufferPool imageBufferPool;
+
     @Override
     public void shutdown() {
-
+        backgrounds.clear();
+        synchronized (deltaStates) {
+            deltaStates.removeIf(state -> !state.inUse);
+        }
     }
 
     @Override
@@ -42,6 +67,11 @@ public class DefaultScheduleRenderManager implements ScheduleRenderManager {
         return "default";
     }
 
+    @Override
+    public Set<String> getOptionNames() {
+        return Set.of("language");
+    }
+
     @Override
     public BufferedImage render(ScheduleInfo scheduleInfo, ObjectNode options) {
         if (scheduleInfo == null) return null;
@@ -63,7 +93,7 @@ public class DefaultScheduleRenderManager implements ScheduleRenderManager {
         for (int i = 1; i < numCols; i++) {
             ScheduleInfo.Lesson[] lessons = scheduleInfo.getLessons().get(DayOfWeek.of(i));
 
-            for (int j = 1; j < lessons.length; j++) {
+            for (int j = 1; j <= lessons.length; j++) {
                 ScheduleInfo.Lesson lesson = lessons[j - 1];
                 if (lesson == null) continue;
                 String subject = lesson.getSubject();
@@ -76,28 +106,143 @@ public class DefaultScheduleRenderManager implements ScheduleRenderManager {
             }
         }
 
-        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        DefaultTable table = new DefaultTable(data, WIDTH / 20, HEIGHT / 20, WIDTH - WIDTH / 10, HEIGHT - HEIGHT / 5);
+        String language = options.get("language").asText();
+        String layout = numRows + "x" + numCols + ":" + language;
+        BufferedImage background = backgrounds.computeIfAbsent(layout, k -> createBackground(table));
+        String lastEditedStr = TranslationService.getMessage("lastEdited", language, scheduleInfo.getLastUpdate());
+
+        BufferedImage image = imageBufferPool.acquire(WIDTH, HEIGHT);
+        DeltaState state = acquireState(layout, data);
+        if (state == null) {
+            // Every state is busy on another render thread
+            background.copyData(image.getRaster());
+            Graphics2D g2d = image.createGraphics();
+            table.drawCells(g2d);
+            drawFooter(g2d, lastEditedStr);
+            g2d.dispose();
+            return image;
+        }
 
-        Graphics2D g2d = image.createGraphics();
+        try {
+            if (!layout.equals(state.layout)) {
+                background.copyData(state.image.getRaster());
+                state.layout = layout;
+                state.data = new String[numRows][numCols];
+                state.lastEditedStr = null;
+            }
 
-        g2d.setBackground(Color.DARK_GRAY);
-        g2d.clearRect(0, 0, WIDTH, HEIGHT);
+            Graphics2D g2d = state.image.createGraphics();
 
-        DefaultTable table = new DefaultTable(data, WIDTH / 20, HEIGHT / 20, WIDTH - WIDTH / 10, HEIGHT - HEIGHT / 5);
-        table.draw(g2d);
+            for (int i = 1; i < numRows; i++) {
+                for (int j = 1; j < numCols; j++) {
+                    if (Objects.equals(state.data[i][j], data[i][j])) continue;
+                    restore(state.image, background, table.getCellBounds(i, j));
+                    table.drawCell(g2d, i, j);
+                }
+            }
+
+            if (!lastEditedStr.equals(state.lastEditedStr)) {
+                restore(state.image, background, new Rectangle(0, FOOTER_Y, WIDTH, HEIGHT - FOOTER_Y));
+                drawFooter(g2d, lastEditedStr);
+            }
 
-        g2d.setFont(new Font("Arial", Font.PLAIN, WIDTH / 160));
-        String lastEditedStr = TranslationService.getMessage("lastEdited", options.get("language").asText(), scheduleInfo.getLastUpdate());
+            g2d.dispose();
+
+            state.data = data;
+            state.lastEditedStr = lastEditedStr;
+            state.image.copyData(image.getRaster());
+        } finally {
+            synchronized (deltaStates) {
+                state.inUse = false;
+            }
+        }
+
+        return image;
+    }
 
+    /**
+     * Picks the idle state of the layout whose last render differs from the data in the fewest cells. Without one, a
+     * new state is created while there are fewer than {@link #MAX_DELTA_STATES}, otherwise the least recently used
+     * idle state is taken over. Returns null if all states are in use.
+     */
+    private DeltaState acquireState(String layout, String[][] data) {
+        synchronized (deltaStates) {
+            DeltaState best = null;
+            int bestDifferences = Integer.MAX_VALUE;
+            DeltaState leastRecentlyUsed = null;
+            for (DeltaState state : deltaStates) {
+                if (state.inUse) continue;
+                if (leastRecentlyUsed == null || state.lastUsed < leastRecentlyUsed.lastUsed) leastRecentlyUsed = state;
+                if (!layout.equals(state.layout)) continue;
+
+                int differences = countDifferences(state.data, data);
+                if (differences < bestDifferences) {
+                    best = state;
+                    bestDifferences = differences;
+                }
+            }
+
+            if (best == null && deltaStates.size() < MAX_DELTA_STATES) {
+                best = new DeltaState();
+                deltaStates.add(best);
+            } else if (best == null) {
+                best = leastRecentlyUsed;
+            }
+
+            if (best != null) {
+                best.inUse = true;
+                best.lastUsed = System.nanoTime();
+            }
+            return best;
+        }
+    }
+
+    private static int countDifferences(String[][] a, String[][] b) {
+        int differences = 0;
+        for (int i = 1; i < a.length; i++) {
+            for (int j = 1; j < a[i].length; j++) {
+                if (!Objects.equals(a[i][j], b[i][j])) differences++;
+            }
+        }
+        return differences;
+    }
+
+    private static void drawFooter(Graphics2D g2d, String lastEditedStr) {
+        g2d.setFont(FONT_FOOTER);
         g2d.drawString(lastEditedStr, WIDTH / 20, HEIGHT - HEIGHT / 20);
+    }
+
+    private static void restore(BufferedImage image, BufferedImage background, Rectangle bounds) {
+        // setDataElements copies whole rows, setRect would convert every pixel on its own
+        image.getRaster().setDataElements(bounds.x, bounds.y, background.getRaster().createChild(bounds.x, bounds.y, bounds.width, bounds.height, 0, 0, null));
+    }
+
+    private BufferedImage createBackground(DefaultTable table) {
+        BufferedImage background = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+
+        Graphics2D g2d = background.createGraphics();
+
+        g2d.setBackground(Color.DARK_GRAY);
+        g2d.clearRect(0, 0, WIDTH, HEIGHT);
+
+        table.drawGrid(g2d);
 
         g2d.dispose();
 
-        return image;
+        return background;
     }
 
-    @Override
-    public boolean shouldReRender(ScheduleInfo oldScheduleInfo, ScheduleInfo newScheduleInfo) {
-        return oldScheduleInfo == null || oldScheduleInfo.getLastUpdate().isBefore(newScheduleInfo.getLastUpdate());
+    /**
+     * A previous render and the cell texts it shows. Only cells whose text changed are drawn again. Guarded by the
+     * state list except for the image and texts, which belong to the render that set {@link #inUse}.
+     */
+    private static class DeltaState {
+        private final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        private String layout;
+        private String[][] data;
+        private String lastEditedStr;
+        private boolean inUse;
+        private long lastUsed;
     }
 }
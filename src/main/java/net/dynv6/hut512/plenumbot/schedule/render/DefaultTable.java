@@ -19,17 +19,32 @@
 
 package net.dynv6.hut512.plenumbot.schedule.render;
 
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import net.dynv6.hut512.plenumbot.util.LruMap;
 
 import java.awt.*;
+import java.awt.font.FontRenderContext;
 import java.awt.font.TextAttribute;
-import java.util.HashMap;
+import java.awt.font.TextLayout;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Getter
 @RequiredArgsConstructor
 public class DefaultTable {
+    private static final Map<TextAttribute, Object> ATTRIBUTES_NORMAL = Map.of(TextAttribute.STRIKETHROUGH, false);
+    private static final Map<TextAttribute, Object> ATTRIBUTES_STRIKETHROUGH = Map.of(TextAttribute.STRIKETHROUGH, true);
+
+    // Matches the hints of a fresh BufferedImage graphics, so cached layouts measure like drawString
+    private static final FontRenderContext FONT_RENDER_CONTEXT = new FontRenderContext(null, false, false);
+    private static final int MAX_LAYOUTS = 4096;
+
+    private static final Map<Integer, Font> FONTS = new ConcurrentHashMap<>();
+    private static final Map<LayoutKey, TextBlock> LAYOUTS = Collections.synchronizedMap(new LruMap<>(MAX_LAYOUTS));
+
     private final String[][] data;
     private final int xOffset;
     private final int yOffset;
@@ -38,8 +53,6 @@ public class DefaultTable {
 
     private final Font FONT_DEFAULT;
     private final Font FONT_LARGE;
-    private final Map<TextAttribute, Object> ATTRIBUTES_NORMAL;
-    private final Map<TextAttribute, Object> ATTRIBUTES_STRIKETHROUGH;
 
     public DefaultTable(String[][] data, int xOffset, int yOffset, int width, int height) {
         this.data = data;
@@ -48,15 +61,19 @@ public class DefaultTable {
         this.width = width;
         this.height = height;
 
-        this.FONT_DEFAULT = new Font("Arial", Font.BOLD, width / 80);
-        this.FONT_LARGE = new Font("Arial", Font.BOLD, width / 60);
-        this.ATTRIBUTES_NORMAL = new HashMap<>();
-        this.ATTRIBUTES_NORMAL.put(TextAttribute.STRIKETHROUGH, false);
-        this.ATTRIBUTES_STRIKETHROUGH = new HashMap<>();
-        this.ATTRIBUTES_STRIKETHROUGH.put(TextAttribute.STRIKETHROUGH, true);
+        this.FONT_DEFAULT = getFont(width / 80);
+        this.FONT_LARGE = getFont(width / 60);
     }
 
     public void draw(Graphics2D g2d) {
+        drawGrid(g2d);
+        drawCells(g2d);
+    }
+
+    /**
+     * Draws everything that does not depend on the lessons: the lines, the header row and the first column.
+     */
+    public void drawGrid(Graphics2D g2d) {
         int numRows = data.length;
         int numCols = data[0].length;
 
@@ -77,36 +94,92 @@ public class DefaultTable {
         for (int i = 1; i < numRows; i++) {
             int rowY = i * rowHeight;
             drawLine(g2d, 0, rowY, width, rowY);
-            for (int j = 0; j < numCols; j++) {
-                if (data[i][j] == null) continue;
-                drawStringCentered(g2d, data[i][j], j * colWidth, rowY, colWidth, rowHeight);
+            if (data[i][0] == null) continue;
+            drawStringCentered(g2d, data[i][0], 0, rowY, colWidth, rowHeight);
+        }
+    }
+
+    /**
+     * Draws all cells except the header row and the first column.
+     */
+    public void drawCells(Graphics2D g2d) {
+        for (int i = 1; i < data.length; i++) {
+            for (int j = 1; j < data[0].length; j++) {
+                drawCell(g2d, i, j);
             }
         }
     }
 
-    private void drawStringCentered(Graphics2D g2d, String str, int x, int y, int width, int height) {
-        String[] lines = str.split("\n");
-        int numLines = lines.length;
-        FontMetrics fontMetrics = g2d.getFontMetrics();
-        int textHeight = (int) (g2d.getFont().getSize() * 1.33);
-        for (int i = 0; i < numLines; i++) {
-            String line = lines[i];
+    /**
+     * Draws a single cell, clipped to its bounds so it can be redrawn on its own.
+     */
+    public void drawCell(Graphics2D g2d, int row, int col) {
+        if (data[row][col] == null) return;
 
-            if (line.startsWith("~"))
-                g2d.setFont(g2d.getFont().deriveFont(ATTRIBUTES_STRIKETHROUGH));
-            else
-                g2d.setFont(g2d.getFont().deriveFont(ATTRIBUTES_NORMAL));
+        Rectangle bounds = getCellBounds(row, col);
+        Shape clip = g2d.getClip();
+        g2d.clip(bounds);
+        g2d.setFont(FONT_DEFAULT);
+        drawStringCentered(g2d, data[row][col], bounds.x - xOffset, bounds.y - yOffset, bounds.width, bounds.height);
+        g2d.setClip(clip);
+    }
 
-            line = line.replace("~", "");
+    public Rectangle getCellBounds(int row, int col) {
+        int rowHeight = height / data.length;
+        int colWidth = width / data[0].length;
+        return new Rectangle(col * colWidth + xOffset, row * rowHeight + yOffset, colWidth, rowHeight);
+    }
 
-            int textWidth = fontMetrics.stringWidth(line);
-            g2d.drawString(line, x + (width - textWidth) / 2 + xOffset, y + textHeight / 2 + height / (numLines + 1) * (i + 1) + yOffset);
-            // 1: height
-            // 2:
+    private void drawStringCentered(Graphics2D g2d, String str, int x, int y, int width, int height) {
+        Font font = g2d.getFont();
+        TextBlock block = LAYOUTS.computeIfAbsent(new LayoutKey(str, font), k -> TextBlock.create(str, font));
+        int textHeight = (int) (font.getSize() * 1.33);
+        int numLines = block.lines.length;
+        for (int i = 0; i < numLines; i++) {
+            TextLayout line = block.lines[i];
+            if (line == null) continue;
+            line.draw(g2d, x + (width - block.widths[i]) / 2 + xOffset, y + textHeight / 2 + height / (numLines + 1) * (i + 1) + yOffset);
         }
     }
 
     private void drawLine(Graphics2D g2d, int x1, int y1, int x2, int y2) {
         g2d.drawLine(x1 + xOffset, y1 + yOffset, x2 + xOffset, y2 + yOffset);
     }
+
+    private static Font getFont(int size) {
+        return FONTS.computeIfAbsent(size, s -> new Font("Arial", Font.BOLD, s));
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static class LayoutKey {
+        private final String text;
+        private final Font font;
+    }
+
+    /**
+     * Pre-measured lines of a cell, a leading "~" marks a line as struck through.
+     */
+    @RequiredArgsConstructor
+    private static class TextBlock {
+        private final TextLayout[] lines;
+        private final int[] widths;
+
+        private static TextBlock create(String str, Font font) {
+            Font normal = font.deriveFont(ATTRIBUTES_NORMAL);
+            Font strikethrough = font.deriveFont(ATTRIBUTES_STRIKETHROUGH);
+
+            String[] strings = str.split("\n");
+            TextLayout[] lines = new TextLayout[strings.length];
+            int[] widths = new int[strings.length];
+            for (int i = 0; i < strings.length; i++) {
+                String line = strings[i].replace("~", "");
+                if (line.isEmpty()) continue;
+
+                lines[i] = new TextLayout(line, strings[i].startsWith("~") ? strikethrough : normal, FONT_RENDER_CONTEXT);
+                widths[i] = (int) lines[i].getAdvance();
+            }
+            return new TextBlock(lines, widths);
+        }
+    }
 }
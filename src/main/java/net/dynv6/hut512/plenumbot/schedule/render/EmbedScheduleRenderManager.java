@@ -0,0 +1,31 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.schedule.render;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfo;
+
+/**
+ * Renders the schedule as a Discord embed, the guild's image format is ignored.
+ */
+public interface EmbedScheduleRenderManager extends ScheduleRenderManager {
+    MessageEmbed renderEmbed(ScheduleInfo scheduleInfo, ObjectNode options);
+}
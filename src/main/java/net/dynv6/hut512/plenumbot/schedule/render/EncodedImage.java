@@ -0,0 +1,54 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.schedule.render;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import net.dv8tion.jda.api.utils.FileUpload;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+
+/**
+ * An encoded render as held by the {@link RenderCache}, either in memory or in its cache directory. Uploads stream
+ * it from there without copying it.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class EncodedImage {
+    @Nullable
+    private final byte[] data;
+    @Nullable
+    private final Path file;
+
+    public static EncodedImage of(byte[] data) {
+        return new EncodedImage(data, null);
+    }
+
+    public static EncodedImage of(Path file) {
+        return new EncodedImage(null, file);
+    }
+
+    /**
+     * Files are opened right away, so the upload still succeeds if the file is evicted before it is sent.
+     */
+    public FileUpload toFileUpload(String name) {
+        return data != null ? FileUpload.fromData(data, name) : FileUpload.fromData(file, name);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.schedule.render;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reusable ARGB images, so renders don't allocate a new multi-megabyte raster each time. Images are pooled per size
+ * and at most {@code maxPerSize} of each size are kept, which should match the number of render workers.
+ */
+public class ImageBufferPool {
+    private final int maxPerSize;
+    private final Map<Long, BlockingQueue<BufferedImage>> pools;
+
+    public ImageBufferPool(int maxPerSize) {
+        this.maxPerSize = maxPerSize;
+        this.pools = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns a fully transparent image, either a pooled or a new one.
+     */
+    public BufferedImage acquire(int width, int height) {
+        BufferedImage image = getPool(width, height).poll();
+        if (image == null) return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+        Arrays.fill(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0);
+        return image;
+    }
+
+    /**
+     * Hands an image back to the pool. The caller must not use it afterwards.
+     */
+    public void release(BufferedImage image) {
+        if (image == null || image.getType() != BufferedImage.TYPE_INT_ARGB) return;
+        getPool(image.getWidth(), image.getHeight()).offer(image);
+    }
+
+    private BlockingQueue<BufferedImage> getPool(int width, int height) {
+        return pools.computeIfAbsent((long) width << 32 | height, k -> new ArrayBlockingQueue<>(maxPerSize));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.schedule.render;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The format a guild's schedule images are encoded in. Compression level and filter only apply to PNGs.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ImageFormat {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageFormat.class);
+
+    private final String name;
+    private final int compressionLevel;
+    private final PngEncoder.Filter filter;
+
+    public static ImageFormat of(String name, int compressionLevel, String filter) {
+        PngEncoder.Filter pngFilter;
+        try {
+            pngFilter = PngEncoder.Filter.valueOf(filter.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Unknown PNG filter " + filter + ", expected one of " + Arrays.toString(PngEncoder.Filter.values()) + ", using NONE");
+            pngFilter = PngEncoder.Filter.NONE;
+        }
+        return new ImageFormat(name, Math.max(0, Math.min(9, compressionLevel)), pngFilter);
+    }
+
+    public boolean isPng() {
+        return "png".equalsIgnoreCase(name);
+    }
+
+    /**
+     * Everything that changes the encoded bytes, part of the render fingerprint.
+     */
+    public String getKey() {
+        return isPng() ? name + ":" + compressionLevel + ":" + filter : name;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.schedule.render;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfo;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.image.BufferedImage;
+
+public interface ImageScheduleRenderManager extends ScheduleRenderManager {
+    /**
+     * Renders the schedule. The returned image is handed back to the {@link ImageBufferPool} once it is encoded,
+     * so the renderer must not keep a reference to it.
+     */
+    BufferedImage render(@Nullable ScheduleInfo scheduleInfo, ObjectNode options);
+}
@@ -0,0 +1,276 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.schedule.render;
+
+import lombok.RequiredArgsConstructor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodes images with few colours, like schedules, as indexed PNGs. Compared to the truecolour PNGs written by
+ * ImageIO this drops the alpha channel (unless a colour is transparent) and needs a quarter of the bytes per pixel
+ * or less before compression.
+ */
+@RequiredArgsConstructor
+public class PngEncoder {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int MAX_PALETTE_SIZE = 256;
+    private static final byte COLOR_TYPE_INDEXED = 3;
+
+    private final int compressionLevel;
+    private final Filter filter;
+
+    /**
+     * Writes the encoded image to the stream. Returns false without writing anything if the image has too many
+     * colours to be indexed.
+     */
+    public boolean encode(BufferedImage image, OutputStream out) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = getPixels(image);
+
+        Map<Integer, Integer> indices = new HashMap<>();
+        int[] palette = new int[MAX_PALETTE_SIZE];
+        int lastPixel = 0;
+        int lastIndex = -1;
+        for (int pixel : pixels) {
+            if (pixel == lastPixel && lastIndex >= 0) continue;
+            Integer index = indices.get(pixel);
+            if (index == null) {
+                if (indices.size() == MAX_PALETTE_SIZE) return false;
+                index = indices.size();
+                indices.put(pixel, index);
+                palette[index] = pixel;
+            }
+            lastPixel = pixel;
+            lastIndex = index;
+        }
+
+        int paletteSize = indices.size();
+        int bitDepth = paletteSize <= 2 ? 1 : paletteSize <= 4 ? 2 : paletteSize <= 16 ? 4 : 8;
+        int rowBytes = (width * bitDepth + 7) / 8;
+
+        out.write(SIGNATURE);
+
+        byte[] header = new byte[13];
+        setInt(header, 0, width);
+        setInt(header, 4, height);
+        header[8] = (byte) bitDepth;
+        header[9] = COLOR_TYPE_INDEXED;
+        header[10] = 0; // deflate
+        header[11] = 0; // adaptive filtering with the five basic filters
+        header[12] = 0; // no interlace
+        writeChunk(out, "IHDR", header, header.length);
+
+        byte[] plte = new byte[paletteSize * 3];
+        int transparentEntries = 0;
+        for (int i = 0; i < paletteSize; i++) {
+            plte[i * 3] = (byte) (palette[i] >>> 16);
+            plte[i * 3 + 1] = (byte) (palette[i] >>> 8);
+            plte[i * 3 + 2] = (byte) palette[i];
+            if (palette[i] >>> 24 != 0xFF) transparentEntries = i + 1;
+        }
+        writeChunk(out, "PLTE", plte, plte.length);
+
+        if (transparentEntries > 0) {
+            byte[] trns = new byte[transparentEntries];
+            for (int i = 0; i < transparentEntries; i++) {
+                trns[i] = (byte) (palette[i] >>> 24);
+            }
+            writeChunk(out, "tRNS", trns, trns.length);
+        }
+
+        Deflater deflater = new Deflater(compressionLevel);
+        try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(new IdatOutputStream(out), deflater, 8192)) {
+            byte[] row = new byte[rowBytes];
+            byte[] previousRow = new byte[rowBytes];
+            byte[][] filtered = new byte[Filter.values().length][rowBytes];
+            int pixelsPerByte = 8 / bitDepth;
+            lastIndex = -1;
+            for (int y = 0; y < height; y++) {
+                Arrays.fill(row, (byte) 0);
+                for (int x = 0; x < width; x++) {
+                    int pixel = pixels[y * width + x];
+                    if (pixel != lastPixel || lastIndex < 0) {
+                        lastPixel = pixel;
+                        lastIndex = indices.get(pixel);
+                    }
+                    int shift = (pixelsPerByte - 1 - x % pixelsPerByte) * bitDepth;
+                    row[x / pixelsPerByte] |= (byte) (lastIndex << shift);
+                }
+
+                Filter rowFilter = filter == Filter.ADAPTIVE ? chooseFilter(row, previousRow, filtered) : filter;
+                byte[] filteredRow = filtered[rowFilter.ordinal()];
+                if (filter != Filter.ADAPTIVE) rowFilter.apply(row, previousRow, filteredRow);
+                deflaterOut.write(rowFilter.type);
+                deflaterOut.write(filteredRow);
+
+                byte[] swap = previousRow;
+                previousRow = row;
+                row = swap;
+            }
+        } finally {
+            deflater.end();
+        }
+        writeChunk(out, "IEND", new byte[0], 0);
+
+        return true;
+    }
+
+    private static int[] getPixels(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB && image.getRaster().getDataBuffer() instanceof DataBufferInt buffer
+                && buffer.getNumBanks() == 1 && buffer.getSize() == image.getWidth() * image.getHeight()) {
+            return buffer.getData();
+        }
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    /**
+     * The filter with the smallest sum of absolute differences, the heuristic recommended by the PNG specification.
+     */
+    private static Filter chooseFilter(byte[] row, byte[] previousRow, byte[][] filtered) {
+        Filter best = Filter.NONE;
+        long bestSum = Long.MAX_VALUE;
+        for (Filter candidate : Filter.values()) {
+            if (candidate == Filter.ADAPTIVE) continue;
+            byte[] out = filtered[candidate.ordinal()];
+            candidate.apply(row, previousRow, out);
+            long sum = 0;
+            for (byte b : out) {
+                sum += Math.abs(b);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        byte[] number = new byte[4];
+        setInt(number, 0, length);
+        out.write(number);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        setInt(number, 0, (int) crc.getValue());
+        out.write(number);
+    }
+
+    private static void setInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Splits the compressed data into IDAT chunks while it is written, so it never has to be buffered as a whole.
+     */
+    @RequiredArgsConstructor
+    private static class IdatOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] chunk = new byte[1 << 16];
+        private int length;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (length == chunk.length) flushChunk();
+            chunk[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (length == chunk.length) flushChunk();
+                int n = Math.min(len, chunk.length - length);
+                System.arraycopy(b, off, chunk, length, n);
+                length += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (length > 0) flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            writeChunk(out, "IDAT", chunk, length);
+            length = 0;
+        }
+    }
+
+    /**
+     * The PNG row filters. Indexed images have one byte per pixel at most, so the filters always look one byte back.
+     */
+    @RequiredArgsConstructor
+    public enum Filter {
+        NONE(0),
+        SUB(1),
+        UP(2),
+        AVERAGE(3),
+        PAETH(4),
+        ADAPTIVE(-1);
+
+        private final int type;
+
+        private void apply(byte[] row, byte[] previousRow, byte[] out) {
+            for (int i = 0; i < row.length; i++) {
+                int a = i == 0 ? 0 : row[i - 1] & 0xFF;
+                int b = previousRow[i] & 0xFF;
+                int c = i == 0 ? 0 : previousRow[i - 1] & 0xFF;
+                int predictor = switch (this) {
+                    case NONE, ADAPTIVE -> 0;
+                    case SUB -> a;
+                    case UP -> b;
+                    case AVERAGE -> (a + b) >>> 1;
+                    case PAETH -> paeth(a, b, c);
+                };
+                out[i] = (byte) (row[i] - predictor);
+            }
+        }
+
+        private static int paeth(int a, int b, int c) {
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            if (pa <= pb && pa <= pc) return a;
+            return pb <= pc ? b : c;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.schedule.render;
+
+import net.dynv6.hut512.plenumbot.util.SingleFlight;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+
+/**
+ * Encoded renders by fingerprint, shared by all guilds. Recently used renders are kept in memory; if a directory is
+ * configured, renders evicted from memory overflow into files there, which are uploaded directly. Both tiers are
+ * bounded in bytes and evict the least recently used render first.
+ */
+public class RenderCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RenderCache.class);
+    private static final int INITIAL_BUFFER_SIZE = 256 * 1024;
+
+    private final long maxMemoryBytes;
+    private final Map<String, byte[]> memoryTier;
+    private long memoryBytes;
+
+    @Nullable
+    private final Path diskDirectory;
+    private final long maxDiskBytes;
+    private final Map<String, Long> diskTier;
+    private long diskBytes;
+
+    private final SingleFlight<String, EncodedImage> renders;
+    private final BlockingQueue<ByteArrayOutputStream> buffers;
+
+    public RenderCache(long maxMemoryBytes, @Nullable Path diskDirectory, long maxDiskBytes, int maxBuffers) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.memoryTier = new LinkedHashMap<>(16, 0.75f, true);
+        this.diskDirectory = diskDirectory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.diskTier = new LinkedHashMap<>(16, 0.75f, true);
+        this.renders = new SingleFlight<>(Duration.ZERO);
+        this.buffers = new ArrayBlockingQueue<>(maxBuffers);
+
+        if (diskDirectory != null) loadDiskTier(diskDirectory);
+    }
+
+    /**
+     * Returns the cached render or renders it. Concurrent calls for the same fingerprint render only once.
+     */
+    public EncodedImage get(String fingerprint, Encoder encoder) throws IOException {
+        EncodedImage image = getCached(fingerprint);
+        if (image != null) return image;
+
+        try {
+            return renders.execute(fingerprint, () -> {
+                EncodedImage cached = getCached(fingerprint);
+                return cached != null ? cached : encode(fingerprint, encoder);
+            }).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException cause) throw cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Renders from disk are uploaded straight from their file instead of being read back into memory.
+     */
+    @Nullable
+    private synchronized EncodedImage getCached(String fingerprint) {
+        byte[] data = memoryTier.get(fingerprint);
+        if (data != null) return EncodedImage.of(data);
+        return diskTier.get(fingerprint) == null ? null : EncodedImage.of(getFile(fingerprint));
+    }
+
+    /**
+     * Encodes into a reused buffer, which is then copied once into the memory tier or written to disk if there is
+     * no memory tier.
+     */
+    private EncodedImage encode(String fingerprint, Encoder encoder) throws IOException {
+        ByteArrayOutputStream buffer = buffers.poll();
+        if (buffer == null) buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        try {
+            long start = System.nanoTime();
+            encoder.encode(buffer);
+            LOGGER.debug("Encoded render " + fingerprint + " with " + buffer.size() + " bytes in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+
+            if (maxMemoryBytes <= 0 && diskDirectory != null && writeToDisk(fingerprint, buffer.size(), buffer::writeTo)) {
+                return EncodedImage.of(getFile(fingerprint));
+            }
+
+            byte[] data = buffer.toByteArray();
+            put(fingerprint, data);
+            return EncodedImage.of(data);
+        } finally {
+            buffer.reset();
+            buffers.offer(buffer);
+        }
+    }
+
+    private void put(String fingerprint, byte[] data) {
+        List<Map.Entry<String, byte[]>> overflow = new ArrayList<>();
+        synchronized (this) {
+            byte[] old = memoryTier.put(fingerprint, data);
+            memoryBytes += data.length - (old == null ? 0 : old.length);
+
+            Iterator<Map.Entry<String, byte[]>> iterator = memoryTier.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && iterator.hasNext()) {
+                Map.Entry<String, byte[]> eldest = iterator.next();
+                iterator.remove();
+                memoryBytes -= eldest.getValue().length;
+                if (diskDirectory != null && !diskTier.containsKey(eldest.getKey())) overflow.add(eldest);
+            }
+        }
+
+        for (Map.Entry<String, byte[]> entry : overflow) {
+            byte[] evicted = entry.getValue();
+            writeToDisk(entry.getKey(), evicted.length, out -> out.write(evicted));
+        }
+    }
+
+    private boolean writeToDisk(String fingerprint, long length, Encoder writer) {
+        Path file = getFile(fingerprint);
+        try {
+            Path tmp = Files.createTempFile(diskDirectory, fingerprint, ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                writer.encode(out);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Could not write cached render " + file, e);
+            return false;
+        }
+
+        List<Path> evicted;
+        synchronized (this) {
+            Long old = diskTier.put(fingerprint, length);
+            diskBytes += length - (old == null ? 0 : old);
+            evicted = evictDiskTier();
+        }
+
+        deleteFiles(evicted);
+        return true;
+    }
+
+    /**
+     * Drops the least recently used renders until the disk tier fits again and returns their files.
+     */
+    private synchronized List<Path> evictDiskTier() {
+        List<Path> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> iterator = diskTier.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            diskBytes -= eldest.getValue();
+            evicted.add(getFile(eldest.getKey()));
+        }
+        return evicted;
+    }
+
+    private static void deleteFiles(List<Path> files) {
+        for (Path file : files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete cached render " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Renders are stored by their fingerprint, so files of a previous run can be served again. A directory that grew
+     * beyond the limit, e.g. because it was lowered, is trimmed oldest first.
+     */
+    private void loadDiskTier(Path directory) {
+        List<Path> leftovers = new ArrayList<>();
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                files.map(file -> {
+                            try {
+                                return Map.entry(file, Files.readAttributes(file, BasicFileAttributes.class));
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        })
+                        .sorted(Comparator.comparing(entry -> entry.getValue().lastModifiedTime()))
+                        .forEach(entry -> {
+                            String name = entry.getKey().getFileName().toString();
+                            if (name.endsWith(".tmp")) {
+                                leftovers.add(entry.getKey());
+                                return;
+                            }
+                            diskTier.put(name, entry.getValue().size());
+                            diskBytes += entry.getValue().size();
+                        });
+            }
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.warn("Could not load render cache directory " + directory, e);
+        }
+
+        leftovers.addAll(evictDiskTier());
+        deleteFiles(leftovers);
+    }
+
+    private Path getFile(String fingerprint) {
+        return diskDirectory.resolve(fingerprint);
+    }
+
+    @FunctionalInterface
+    public interface Encoder {
+        void encode(OutputStream out) throws IOException;
+    }
+}
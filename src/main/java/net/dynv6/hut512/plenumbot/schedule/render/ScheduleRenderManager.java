@@ -19,18 +19,27 @@
 
 package net.dynv6.hut512.plenumbot.schedule.render;
 
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import net.dynv6.hut512.plenumbot.schedule.ScheduleInfo;
-import org.jetbrains.annotations.Nullable;
-
-import java.awt.image.BufferedImage;
+import java.util.Set;
 
+/**
+ * Renderers implement either {@link ImageScheduleRenderManager} or {@link EmbedScheduleRenderManager}.
+ */
 public interface ScheduleRenderManager {
     void shutdown();
 
     String getName();
 
-    BufferedImage render(@Nullable ScheduleInfo scheduleInfo, ObjectNode options);
+    /**
+     * The options the renderer reads. Only these are part of a render's fingerprint, so guilds that only differ
+     * in other options, e.g. their credentials, share renders.
+     */
+    Set<String> getOptionNames();
 
-    boolean shouldReRender(@Nullable ScheduleInfo oldScheduleInfo, @Nullable ScheduleInfo newScheduleInfo);
+    /**
+     * Anything besides the schedule and the options that changes the render, e.g. the current day. Part of the
+     * fingerprint as well.
+     */
+    default String getRenderState() {
+        return "";
+    }
 }
@@ -21,8 +21,11 @@ package net.dynv6.hut512.plenumbot.schedule.render;
 
 import net.dynv6.hut512.plenumbot.schedule.ScheduleInfoManager;
 
+import java.time.ZoneId;
+
 public class ScheduleRenderManagers {
-    public static void registerRenders(ScheduleInfoManager infoManager) {
-        infoManager.registerRenderManager(new DefaultScheduleRenderManager());
+    public static void registerRenders(ScheduleInfoManager infoManager, ZoneId zone) {
+        infoManager.registerRenderManager(new DefaultScheduleRenderManager(infoManager.getImageBufferPool()));
+        infoManager.registerRenderManager(new DefaultEmbedScheduleRenderManager(zone));
     }
 }
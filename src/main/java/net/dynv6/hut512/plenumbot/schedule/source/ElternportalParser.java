@@ -0,0 +1,152 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.schedule.source;
+
+import lombok.experimental.UtilityClass;
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfo;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.Elements;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parses the timetable and substitution pages of the Elternportal. Works on any {@link Document}, so recorded pages
+ * can be parsed without the portal.
+ */
+@UtilityClass
+public class ElternportalParser {
+    public static final String SCHEDULE_SELECTOR = "table.table.table-condensed.table-bordered tbody";
+    public static final String SUBSTITUTIONS_SELECTOR = ".main_center";
+    private static final String SUBSTITUTION_ROW_SELECTOR = "tr.liste_grau, tr.liste_weiss";
+
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH.mm");
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("E, d.MM.yyyy - 'KW' w", Locale.GERMAN);
+    private static final DateTimeFormatter LAST_EDITED_FORMATTER = DateTimeFormatter.ofPattern("'Stand:' dd.MM.yyyy HH:mm:ss");
+
+    public static ScheduleInfo parseSchedule(Document scheduleDocument) throws ScheduleParseException {
+        try {
+            Elements schedule = scheduleDocument.selectFirst(SCHEDULE_SELECTOR).children();
+            int numLessons = schedule.size() - 1;
+
+            LocalTime[][] schoolHours = new LocalTime[numLessons][];
+            Map<DayOfWeek, ScheduleInfo.Lesson[]> lessons = new HashMap<>();
+
+            // The first row holds the weekdays
+            for (int i = 0; i < numLessons; i++) {
+                Elements fields = schedule.get(i + 1).children();
+
+                List<String> hourLines = getLines(fields.get(0));
+                String[] timeComponents = hourLines.get(hourLines.size() - 1).split(" - ");
+                schoolHours[i] = new LocalTime[]{LocalTime.parse(timeComponents[0], TIME_FORMATTER), LocalTime.parse(timeComponents[1], TIME_FORMATTER)};
+
+                for (int j = 1; j < fields.size(); j++) {
+                    Element dataField = fields.get(j).selectFirst("span");
+                    if (dataField == null) continue;
+                    List<String> data = getLines(dataField);
+                    if (data.size() != 2) continue;
+                    lessons.computeIfAbsent(DayOfWeek.of(j), k -> new ScheduleInfo.Lesson[numLessons])[i] = new ScheduleInfo.Lesson(data.get(0), data.get(1), "");
+                }
+            }
+
+            return new ScheduleInfo(schoolHours, lessons);
+        } catch (RuntimeException e) {
+            throw new ScheduleParseException("Could not parse schedule", e);
+        }
+    }
+
+    /**
+     * The substitutions page changes its content either when it is edited or when the shown days roll over.
+     */
+    public static String parseSubstitutionsVersion(Document substitutionsDocument) throws ScheduleParseException {
+        try {
+            Elements content = substitutionsDocument.selectFirst(SUBSTITUTIONS_SELECTOR).children();
+            return content.get(0).text() + "\n" + content.get(2).text() + "\n" + content.get(4).text();
+        } catch (RuntimeException e) {
+            throw new ScheduleParseException("Could not parse substitutions version", e);
+        }
+    }
+
+    /**
+     * Applies the substitutions of today and the next school day to the schedule.
+     */
+    public static void insertSubstitutions(ScheduleInfo scheduleInfo, Document substitutionsDocument) throws ScheduleParseException {
+        try {
+            Elements content = substitutionsDocument.selectFirst(SUBSTITUTIONS_SELECTOR).children();
+
+            for (int i = 0; i < 4; i += 2) {
+                DayOfWeek day = LocalDate.parse(content.get(i).text(), DATE_FORMATTER).getDayOfWeek();
+                ScheduleInfo.Lesson[] lessonsOfDay = scheduleInfo.getLessons().get(day);
+                if (lessonsOfDay == null) continue;
+                extractSubstitutions(content.get(i + 1).select(SUBSTITUTION_ROW_SELECTOR), lessonsOfDay);
+            }
+
+            scheduleInfo.setLastUpdate(LocalDateTime.parse(content.get(4).text(), LAST_EDITED_FORMATTER));
+        } catch (RuntimeException e) {
+            throw new ScheduleParseException("Could not parse substitutions", e);
+        }
+    }
+
+    private static void extractSubstitutions(Elements substitutionsOfDay, ScheduleInfo.Lesson[] lessonsOfDay) {
+        for (Element substitution : substitutionsOfDay) {
+            Elements substitutionContent = substitution.children();
+            String teacher = substitutionContent.get(2).text();
+            String subject = substitutionContent.get(3).wholeOwnText();
+            String room = substitutionContent.get(4).wholeOwnText();
+            String info = substitutionContent.get(5).wholeOwnText();
+
+            // Either a single lesson like "3." or a range like "3. - 4."
+            String[] lessonNrs = substitutionContent.get(0).text().replaceAll("[^0-9]+", " ").trim().split(" ");
+            int first = Integer.parseInt(lessonNrs[0]);
+            int last = Integer.parseInt(lessonNrs[lessonNrs.length - 1]);
+            for (int lessonNr = first; lessonNr <= last && lessonNr <= lessonsOfDay.length; lessonNr++) {
+                ScheduleInfo.Lesson lesson = lessonsOfDay[lessonNr - 1];
+                // Substitutions can fill free periods as well
+                if (lesson == null) lesson = lessonsOfDay[lessonNr - 1] = new ScheduleInfo.Lesson("", "", "");
+                lesson.setSubstituteTeacher(teacher);
+                lesson.setSubstituteSubject(subject);
+                lesson.setSubstituteRoom(room);
+                lesson.setInfo(info);
+            }
+        }
+    }
+
+    /**
+     * The text lines of an element whose lines are separated by {@code <br>}.
+     */
+    private static List<String> getLines(Element element) {
+        List<String> lines = new ArrayList<>(2);
+        for (TextNode textNode : element.textNodes()) {
+            String line = textNode.text().trim();
+            if (!line.isEmpty()) lines.add(line);
+        }
+        return lines;
+    }
+}
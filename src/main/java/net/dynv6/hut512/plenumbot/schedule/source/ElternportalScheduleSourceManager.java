@@ -20,37 +20,59 @@
 package net.dynv6.hut512.plenumbot.schedule.source;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.RequiredArgsConstructor;
 import net.dynv6.hut512.plenumbot.schedule.ScheduleInfo;
+import net.dynv6.hut512.plenumbot.util.HashUtil;
 import org.apache.http.auth.InvalidCredentialsException;
+import org.jetbrains.annotations.Nullable;
 import org.jsoup.Connection;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.time.DayOfWeek;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
+import java.net.HttpURLConnection;
 import java.util.HashMap;
-import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class ElternportalScheduleSourceManager implements ScheduleSourceManager {
-    private static final String URL_ROOT = "https://gypenz.eltern-portal.org/";
+    private static final Logger LOGGER = LoggerFactory.getLogger(ElternportalScheduleSourceManager.class);
+
+    public static final String DEFAULT_URL_ROOT = "https://gypenz.eltern-portal.org";
     private static final String URL_LOGIN = "/includes/project/auth/login.php";
     private static final String URL_SCHEDULE = "/service/stundenplan";
     private static final String URL_SUBSTITUTIONS = "/service/vertretungsplan";
     private static final String SESSION_COOKIE_NAME = "PHPSESSID";
 
-    private static final String LAST_EDITED_PATTERN = "'Stand:' dd.MM.yyyy HH:mm:ss";
-    private static final String DATE_PATTERN = "E, d.MM.yyyy - 'KW' w";
+    private static final long SESSION_IDLE_TIMEOUT = TimeUnit.HOURS.toMillis(2);
+    private static final long BASE_SCHEDULE_TTL = TimeUnit.DAYS.toMillis(1);
+
+    private final String urlRoot;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<String, LoadedScheduleInfo> loadedScheduleInfos = new ConcurrentHashMap<>();
+    private final Map<String, BaseScheduleInfo> baseScheduleInfos = new ConcurrentHashMap<>();
+
+    public ElternportalScheduleSourceManager(String urlRoot) {
+        // The paths below are absolute, so a trailing slash would lead to "//" in the requested urls
+        this.urlRoot = urlRoot.endsWith("/") ? urlRoot.substring(0, urlRoot.length() - 1) : urlRoot;
+    }
 
     @Override
     public void shutdown() {
+        sessions.clear();
+        loadedScheduleInfos.clear();
+        baseScheduleInfos.clear();
+    }
 
+    @Override
+    public void invalidate(ObjectNode options) {
+        String credentialKey = credentialKey(options);
+        sessions.remove(credentialKey);
+        loadedScheduleInfos.remove(credentialKey);
+        baseScheduleInfos.remove(credentialKey);
     }
 
     @Override
@@ -60,16 +82,71 @@ public class ElternportalScheduleSourceManager implements ScheduleSourceManager
 
     @Override
     public ScheduleInfo loadScheduleInfo(ObjectNode options) throws InvalidCredentialsException, IOException {
-        String sessionCookie = login(options);
-        Document scheduleDocument = getScheduleDocument(sessionCookie);
-        Document substitutionsDocument = getSubstitutionsDocument(sessionCookie);
-        ScheduleInfo scheduleInfo = parseScheduleInfo(scheduleDocument);
-        insertSubstitutionsFromDocument(scheduleInfo, substitutionsDocument);
+        String credentialKey = credentialKey(options);
+
+        Session session = sessions.get(credentialKey);
+        if (session != null && !session.isExpired()) {
+            try {
+                return loadScheduleInfo(credentialKey, session);
+            } catch (SessionExpiredException e) {
+                LOGGER.debug("Cached session was rejected, logging in again", e);
+            }
+        }
+
+        session = new Session(login(options));
+        sessions.put(credentialKey, session);
+        try {
+            return loadScheduleInfo(credentialKey, session);
+        } catch (SessionExpiredException e) {
+            sessions.remove(credentialKey, session);
+            throw new IOException("Session was rejected directly after login", e);
+        }
+    }
+
+    /**
+     * Loads the substitutions first and only applies them to the cached timetable if they changed since
+     * the last load. Otherwise the previously loaded instance is returned unchanged.
+     */
+    private ScheduleInfo loadScheduleInfo(String credentialKey, Session session) throws IOException {
+        BaseScheduleInfo base = baseScheduleInfos.get(credentialKey);
+        boolean baseValid = base != null && System.currentTimeMillis() - base.loadedAt < BASE_SCHEDULE_TTL;
+        LoadedScheduleInfo loaded = baseValid ? loadedScheduleInfos.get(credentialKey) : null;
+
+        Map<String, String> conditionalHeaders = new HashMap<>();
+        if (loaded != null && loaded.eTag != null) conditionalHeaders.put("If-None-Match", loaded.eTag);
+        if (loaded != null && loaded.lastModified != null) conditionalHeaders.put("If-Modified-Since", loaded.lastModified);
+
+        Connection.Response substitutionsResponse = execute(session, URL_SUBSTITUTIONS, conditionalHeaders);
+        if (loaded != null && substitutionsResponse.statusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) return loaded.scheduleInfo;
+
+        Document substitutionsDocument = parse(substitutionsResponse, URL_SUBSTITUTIONS, ElternportalParser.SUBSTITUTIONS_SELECTOR);
+        String version = ElternportalParser.parseSubstitutionsVersion(substitutionsDocument);
+        if (loaded != null && version.equals(loaded.version)) return loaded.scheduleInfo;
+
+        ScheduleInfo scheduleInfo = (baseValid ? base.scheduleInfo : loadBaseScheduleInfo(credentialKey, session)).copy();
+        ElternportalParser.insertSubstitutions(scheduleInfo, substitutionsDocument);
+
+        loadedScheduleInfos.put(credentialKey, new LoadedScheduleInfo(scheduleInfo, version,
+                substitutionsResponse.header("ETag"), substitutionsResponse.header("Last-Modified")));
+        return scheduleInfo;
+    }
+
+    /**
+     * The timetable itself only changes a few times a year, so it is cached and only reloaded once a day.
+     */
+    private ScheduleInfo loadBaseScheduleInfo(String credentialKey, Session session) throws IOException {
+        Document scheduleDocument = parse(execute(session, URL_SCHEDULE, Map.of()), URL_SCHEDULE, ElternportalParser.SCHEDULE_SELECTOR);
+        ScheduleInfo scheduleInfo = ElternportalParser.parseSchedule(scheduleDocument);
+        baseScheduleInfos.put(credentialKey, new BaseScheduleInfo(scheduleInfo, System.currentTimeMillis()));
         return scheduleInfo;
     }
 
+    private static String credentialKey(ObjectNode options) {
+        return HashUtil.sha256(options.path("username").asText() + "\0" + options.path("password").asText());
+    }
+
     private String login(ObjectNode options) throws IOException, InvalidCredentialsException {
-        Connection.Response loginFormResponse = Jsoup.connect(URL_ROOT)
+        Connection.Response loginFormResponse = Jsoup.connect(urlRoot + "/")
                 .method(Connection.Method.GET)
                 .execute();
 
@@ -82,7 +159,7 @@ public class ElternportalScheduleSourceManager implements ScheduleSourceManager
 
         if (csrfToken.equals("")) throw new IOException("CSRF token empty");
 
-        Connection.Response loginResponse = Jsoup.connect(URL_ROOT + URL_LOGIN)
+        Connection.Response loginResponse = Jsoup.connect(urlRoot + URL_LOGIN)
                 .data("username", options.get("username").asText())
                 .data("password", options.get("password").asText())
                 .data("csrf", csrfToken)
@@ -101,91 +178,67 @@ public class ElternportalScheduleSourceManager implements ScheduleSourceManager
         return sessionCookie;
     }
 
-    private Document getScheduleDocument(String sessionCookie) throws IOException {
-        return Jsoup.connect(URL_ROOT + URL_SCHEDULE)
-                .cookie(SESSION_COOKIE_NAME, sessionCookie)
-                .get();
-    }
+    private Connection.Response execute(Session session, String url, Map<String, String> headers) throws IOException {
+        Connection.Response response = Jsoup.connect(urlRoot + url)
+                .cookie(SESSION_COOKIE_NAME, session.cookie)
+                .headers(headers)
+                .followRedirects(false)
+                .method(Connection.Method.GET)
+                .execute();
 
-    private Document getSubstitutionsDocument(String sessionCookie) throws IOException {
-        return Jsoup.connect(URL_ROOT + URL_SUBSTITUTIONS)
-                .cookie(SESSION_COOKIE_NAME, sessionCookie)
-                .get();
-    }
+        // An expired session is redirected to the login page instead of getting the requested page
+        if (response.statusCode() >= 300 && response.statusCode() != HttpURLConnection.HTTP_NOT_MODIFIED)
+            throw new SessionExpiredException(url + " redirected to " + response.header("Location"));
 
-    private ScheduleInfo parseScheduleInfo(Document scheduleDocument) {
-        Elements schedule = scheduleDocument.select("table.table.table-condensed.table-bordered tbody").get(0).children();
-        schedule.remove(0);
-
-        LocalTime[][] schoolHours = new LocalTime[schedule.size()][2];
-        Map<DayOfWeek, ScheduleInfo.Lesson[]> lessons = new HashMap<>();
-
-        for (int i = 0; i < schedule.size(); i++) {
-            Elements fields = schedule.get(i).children();
-
-            String timeString = fields.get(0).html();
-            timeString = timeString.substring(timeString.indexOf("<br>") + 5);
-            String[] timeComponents = timeString.split(" - ");
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH.mm");
-            LocalTime startTime = LocalTime.parse(timeComponents[0], formatter);
-            LocalTime endTime = LocalTime.parse(timeComponents[1], formatter);
-            schoolHours[i] = new LocalTime[]{startTime, endTime};
-
-            for (int j = 1; j < fields.size(); j++) {
-                Element dataField = fields.get(j).select("span").get(0);
-                String[] data = dataField.html().split("<br>");
-                if (data.length != 2) continue;
-                String subject = data[0];
-                String room = data[1];
-                lessons.computeIfAbsent(DayOfWeek.of(j), k -> new ScheduleInfo.Lesson[schedule.size() - 1])[i] = new ScheduleInfo.Lesson(subject, room, "");
-            }
-        }
-
-        return new ScheduleInfo(schoolHours, lessons);
+        session.lastUsed = System.currentTimeMillis();
+        return response;
     }
 
-    private void insertSubstitutionsFromDocument(ScheduleInfo scheduleInfo, Document substitutionsDocument) {
-        Elements content = substitutionsDocument.select(".main_center").get(0).children();
-
-        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern(DATE_PATTERN, Locale.GERMAN);
+    /**
+     * Only redirects mean an expired session. A page that loaded but lacks its content points to a changed layout or an
+     * account without the page's module, which logging in again would not fix.
+     */
+    private Document parse(Connection.Response response, String url, String requiredSelector) throws IOException {
+        Document document = response.parse();
 
-        LocalDate dateToday = LocalDate.parse(content.get(0).text(), dateFormatter);
-        DayOfWeek dayToday = dateToday.getDayOfWeek();
-
-        Elements substitutionsToday = content.get(1).select("tr.liste_grau, tr.liste_weiss");
-        extractSubstitutions(substitutionsToday, scheduleInfo.getLessons().get(dayToday));
+        if (document.selectFirst(requiredSelector) == null) throw new ScheduleParseException(url + " is missing " + requiredSelector);
 
+        return document;
+    }
 
-        LocalDate dateTomorrow = LocalDate.parse(content.get(2).text(), dateFormatter);
-        DayOfWeek dayTomorrow = dateTomorrow.getDayOfWeek();
+    @RequiredArgsConstructor
+    private static class BaseScheduleInfo {
+        private final ScheduleInfo scheduleInfo;
+        private final long loadedAt;
+    }
 
-        Elements substitutionsTomorrow = content.get(3).select("tr.liste_grau, tr.liste_weiss");
-        extractSubstitutions(substitutionsTomorrow, scheduleInfo.getLessons().get(dayTomorrow));
+    @RequiredArgsConstructor
+    private static class LoadedScheduleInfo {
+        private final ScheduleInfo scheduleInfo;
+        private final String version;
+        @Nullable
+        private final String eTag;
+        @Nullable
+        private final String lastModified;
+    }
 
-        String lastEditedStr = content.get(4).text();
-        DateTimeFormatter lastEditedFormatter = DateTimeFormatter.ofPattern(LAST_EDITED_PATTERN);
-        LocalDateTime lastEdited = LocalDateTime.parse(lastEditedStr, lastEditedFormatter);
+    private static class Session {
+        private final String cookie;
+        private volatile long lastUsed;
 
+        private Session(String cookie) {
+            this.cookie = cookie;
+            this.lastUsed = System.currentTimeMillis();
+        }
 
-        scheduleInfo.getLessons().get(dayToday);
-        scheduleInfo.getLessons().get(dayTomorrow);
-        scheduleInfo.setLastUpdate(lastEdited);
+        private boolean isExpired() {
+            return System.currentTimeMillis() - lastUsed > SESSION_IDLE_TIMEOUT;
+        }
     }
 
-    private void extractSubstitutions(Elements substitutionsOfDay, ScheduleInfo.Lesson[] lessonsOfDay) {
-        for (Element substitution : substitutionsOfDay) {
-            Elements substitutionContent = substitution.children();
-            String lessonStr = substitutionContent.get(0).text();
-            int lessonNr = Integer.parseInt(lessonStr.substring(0, lessonStr.length() - 1));
-            String teacher = substitutionContent.get(2).text();
-            String subject = substitutionContent.get(3).wholeOwnText();
-            String room = substitutionContent.get(4).wholeOwnText();
-            String info = substitutionContent.get(5).wholeOwnText();
-            ScheduleInfo.Lesson lesson = lessonsOfDay[lessonNr - 1];
-            lesson.setSubstituteTeacher(teacher);
-            lesson.setSubstituteSubject(subject);
-            lesson.setSubstituteRoom(room);
-            lesson.setInfo(info);
+    private static class SessionExpiredException extends IOException {
+        private SessionExpiredException(String message) {
+            super(message);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.schedule.source;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a source returned a page that could not be parsed, e.g. because its layout changed.
+ */
+public class ScheduleParseException extends IOException {
+    public ScheduleParseException(String message) {
+        super(message);
+    }
+
+    public ScheduleParseException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -30,5 +30,7 @@ public interface ScheduleSourceManager {
 
     String getName();
 
+    void invalidate(ObjectNode options);
+
     ScheduleInfo loadScheduleInfo(ObjectNode options) throws InvalidCredentialsException, IOException;
 }
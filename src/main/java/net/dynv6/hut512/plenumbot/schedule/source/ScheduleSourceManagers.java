@@ -21,9 +21,12 @@ package net.dynv6.hut512.plenumbot.schedule.source;
 
 import net.dynv6.hut512.plenumbot.schedule.ScheduleInfoManager;
 
+import java.util.Properties;
+
 public class ScheduleSourceManagers {
 
-    public static void registerSources(ScheduleInfoManager infoManager) {
-        infoManager.registerSourceManager(new ElternportalScheduleSourceManager());
+    public static void registerSources(ScheduleInfoManager infoManager, Properties config) {
+        infoManager.registerSourceManager(new ElternportalScheduleSourceManager(
+                config.getProperty("ELTERNPORTAL_URL", ElternportalScheduleSourceManager.DEFAULT_URL_ROOT)));
     }
 }
@@ -36,6 +36,11 @@ public class SchulmanagerScheduleSourceManager implements ScheduleSourceManager
         return "schulmanager";
     }
 
+    @Override
+    public void invalidate(ObjectNode options) {
+
+    }
+
     @Override
     public ScheduleInfo loadScheduleInfo(ObjectNode options) throws InvalidCredentialsException, IOException {
         return null;
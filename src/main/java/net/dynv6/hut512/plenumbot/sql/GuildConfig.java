@@ -25,17 +25,28 @@ import de.steamwar.sql.internal.Statement;
 import de.steamwar.sql.internal.Table;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
+import net.dynv6.hut512.plenumbot.util.LruMap;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.util.Locale;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
 
 @AllArgsConstructor
 public class GuildConfig {
     private static final Table<GuildConfig> TABLE = new Table(GuildConfig.class);
-    private static final SelectStatement<GuildConfig> SELECT = TABLE.select(Table.PRIMARY);
+    private static final SelectStatement<GuildConfig> SELECT_GUILD = TABLE.selectFields("guild");
+    private static final SelectStatement<GuildConfig> SELECT_ALL = new SelectStatement<>(TABLE, "SELECT guild, config, value FROM GuildConfig");
     private static final Statement INSERT = TABLE.insertAll();
     private static final Statement DELETE = TABLE.delete(Table.PRIMARY);
+    private static final Map<Config<?>, List<ChangeListener<?>>> CHANGE_LISTENERS = new ConcurrentHashMap<>();
+    private static final int CACHE_SIZE = 4096;
+    // Snapshots by guild, guilds without any rows are cached with an empty snapshot
+    private static final Map<Long, Snapshot> CACHE = new LruMap<>(CACHE_SIZE);
+    // Guarded by CACHE, bumped by every write so loads that raced with it don't cache the old value
+    private static long cacheGeneration;
 
     @Field(keys = Table.PRIMARY)
     private final long guild;
@@ -45,9 +56,54 @@ public class GuildConfig {
     private final String value;
 
     public static <T> T getConfig(long guild, Config<T> config) {
-        GuildConfig guildConfig = SELECT.select(guild, config.getName());
-        String strValue = guildConfig == null ? config.getDefaultValue().toString() : guildConfig.value;
-        return convertToObject(strValue, config.getType());
+        return getSnapshot(guild).get(config);
+    }
+
+    /**
+     * All configs of the guild, loaded with a single query. Snapshots are cached and invalidated by
+     * {@link #updateConfig} and {@link #deleteConfig}, so changes made to the table by anything else are not seen until
+     * the guild is evicted.
+     */
+    public static Snapshot getSnapshot(long guild) {
+        long generation;
+        synchronized (CACHE) {
+            Snapshot cached = CACHE.get(guild);
+            if (cached != null) return cached;
+            generation = cacheGeneration;
+        }
+
+        Snapshot snapshot = new Snapshot(SELECT_GUILD.listSelect(guild));
+        synchronized (CACHE) {
+            if (generation == cacheGeneration) CACHE.put(guild, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Loads the snapshots of all given guilds with a single query, e.g. at startup.
+     */
+    public static Map<Long, Snapshot> loadSnapshots(Collection<Long> guilds) {
+        long generation;
+        synchronized (CACHE) {
+            generation = cacheGeneration;
+        }
+
+        Map<Long, List<GuildConfig>> rows = SELECT_ALL.listSelect().stream().collect(Collectors.groupingBy(guildConfig -> guildConfig.guild));
+        Map<Long, Snapshot> snapshots = new HashMap<>();
+        for (long guild : guilds) {
+            snapshots.put(guild, new Snapshot(rows.getOrDefault(guild, List.of())));
+        }
+        synchronized (CACHE) {
+            if (generation == cacheGeneration) CACHE.putAll(snapshots);
+        }
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    private static void invalidate(long guild) {
+        synchronized (CACHE) {
+            cacheGeneration++;
+            CACHE.remove(guild);
+        }
     }
 
     public static <T> void updateConfig(long guild, Config<T> config, T value) {
@@ -55,11 +111,34 @@ public class GuildConfig {
             deleteConfig(guild, config);
             return;
         }
+        T oldValue = getConfigIfListened(guild, config);
         INSERT.update(guild, config.getName(), value.toString());
+        invalidate(guild);
+        fireChange(guild, config, oldValue, value);
     }
 
-    public static void deleteConfig(long guild, Config<?> config) {
+    public static <T> void deleteConfig(long guild, Config<T> config) {
+        T oldValue = getConfigIfListened(guild, config);
         DELETE.update(guild, config.getName());
+        invalidate(guild);
+        fireChange(guild, config, oldValue, config.getDefaultValue());
+    }
+
+    public static <T> void addChangeListener(Config<T> config, ChangeListener<T> listener) {
+        CHANGE_LISTENERS.computeIfAbsent(config, k -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    private static <T> T getConfigIfListened(long guild, Config<T> config) {
+        return CHANGE_LISTENERS.containsKey(config) ? getConfig(guild, config) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void fireChange(long guild, Config<T> config, T oldValue, T newValue) {
+        List<ChangeListener<?>> listeners = CHANGE_LISTENERS.get(config);
+        if (listeners == null || newValue.equals(oldValue)) return;
+        for (ChangeListener<?> listener : listeners) {
+            ((ChangeListener<T>) listener).onChange(guild, oldValue, newValue);
+        }
     }
 
     public static <T> T convertToObject(String string, Class<T> targetType) {
@@ -72,6 +151,30 @@ public class GuildConfig {
         }
     }
 
+    /**
+     * Immutable view of the configs of one guild, configs without a row have their default value.
+     */
+    public static class Snapshot {
+        private final Map<String, String> values;
+        // Converting goes through reflection, so every value is only converted once
+        private final Map<String, Object> converted = new ConcurrentHashMap<>();
+
+        private Snapshot(List<GuildConfig> rows) {
+            this.values = rows.stream().collect(Collectors.toUnmodifiableMap(guildConfig -> guildConfig.config, guildConfig -> guildConfig.value));
+        }
+
+        public <T> T get(Config<T> config) {
+            String value = values.get(config.getName());
+            if (value == null) return config.getDefaultValue();
+            return config.getType().cast(converted.computeIfAbsent(config.getName(), name -> convertToObject(value, config.getType())));
+        }
+    }
+
+    @FunctionalInterface
+    public interface ChangeListener<T> {
+        void onChange(long guild, T oldValue, T newValue);
+    }
+
     @Getter
     @AllArgsConstructor
     public static class Config<T> {
@@ -83,6 +186,8 @@ public class GuildConfig {
         public static final Config<String> SCHEDULE_INFO_CHANNEL_ID = new Config<>("scheduleInfoChannelId", "0", String.class);
         public static final Config<String> SCHEDULE_INFO_OPTIONS = new Config<>("scheduleInfoOptions", "", String.class);
         public static final Config<String> SCHEDULE_INFO_IMAGE_FORMAT = new Config<>("scheduleInfoImageFormat", "png", String.class);
+        public static final Config<Integer> SCHEDULE_INFO_PNG_COMPRESSION_LEVEL = new Config<>("scheduleInfoPngCompressionLevel", 6, Integer.class);
+        public static final Config<String> SCHEDULE_INFO_PNG_FILTER = new Config<>("scheduleInfoPngFilter", "none", String.class);
 
         private final String name;
         private final T defaultValue;
@@ -0,0 +1,52 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.sql;
+
+import de.steamwar.sql.internal.Field;
+import de.steamwar.sql.internal.SelectStatement;
+import de.steamwar.sql.internal.Statement;
+import de.steamwar.sql.internal.Table;
+import lombok.AllArgsConstructor;
+
+@AllArgsConstructor
+public class ScheduleFingerprint {
+    private static final Table<ScheduleFingerprint> TABLE = new Table<>(ScheduleFingerprint.class);
+    private static final SelectStatement<ScheduleFingerprint> SELECT = TABLE.select(Table.PRIMARY);
+    private static final Statement INSERT = TABLE.insertAll();
+    private static final Statement DELETE = TABLE.delete(Table.PRIMARY);
+
+    @Field(keys = Table.PRIMARY)
+    private final long guild;
+    @Field
+    private final String fingerprint;
+
+    public static String getFingerprint(long guild) {
+        ScheduleFingerprint scheduleFingerprint = SELECT.select(guild);
+        return scheduleFingerprint == null ? null : scheduleFingerprint.fingerprint;
+    }
+
+    public static void updateFingerprint(long guild, String fingerprint) {
+        INSERT.update(guild, fingerprint);
+    }
+
+    public static void deleteFingerprint(long guild) {
+        DELETE.update(guild);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.sql;
+
+import de.steamwar.sql.internal.Field;
+import de.steamwar.sql.internal.SelectStatement;
+import de.steamwar.sql.internal.Statement;
+import de.steamwar.sql.internal.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class ScheduleMessage {
+    private static final Table<ScheduleMessage> TABLE = new Table<>(ScheduleMessage.class);
+    private static final SelectStatement<ScheduleMessage> SELECT = TABLE.select(Table.PRIMARY);
+    private static final Statement INSERT = TABLE.insertAll();
+    private static final Statement DELETE = TABLE.delete(Table.PRIMARY);
+
+    @Field(keys = Table.PRIMARY)
+    private final long guild;
+    @Field
+    private final long channel;
+    @Field
+    private final long message;
+
+    public static ScheduleMessage getMessage(long guild) {
+        return SELECT.select(guild);
+    }
+
+    public static void updateMessage(long guild, long channel, long message) {
+        INSERT.update(guild, channel, message);
+    }
+
+    public static void deleteMessage(long guild) {
+        DELETE.update(guild);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.sql;
+
+import de.steamwar.sql.internal.Field;
+import de.steamwar.sql.internal.SelectStatement;
+import de.steamwar.sql.internal.Statement;
+import de.steamwar.sql.internal.Table;
+import lombok.AllArgsConstructor;
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfo;
+import net.dynv6.hut512.plenumbot.schedule.ScheduleInfoCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+@AllArgsConstructor
+public class ScheduleSnapshot {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScheduleSnapshot.class);
+
+    private static final Table<ScheduleSnapshot> TABLE = new Table<>(ScheduleSnapshot.class);
+    private static final SelectStatement<ScheduleSnapshot> SELECT = TABLE.select(Table.PRIMARY);
+    private static final Statement INSERT = TABLE.insertAll();
+    private static final Statement DELETE = TABLE.delete(Table.PRIMARY);
+
+    @Field(keys = Table.PRIMARY)
+    private final long guild;
+    @Field
+    private final byte[] data;
+
+    public static ScheduleInfo getSnapshot(long guild) {
+        ScheduleSnapshot snapshot = SELECT.select(guild);
+        if (snapshot == null) return null;
+
+        try (InputStream in = new ByteArrayInputStream(snapshot.data)) {
+            return ScheduleInfoCodec.decode(in);
+        } catch (IOException e) {
+            LOGGER.warn("Could not decode scheduleInfo snapshot of guild " + guild, e);
+            return null;
+        }
+    }
+
+    public static void updateSnapshot(long guild, ScheduleInfo scheduleInfo) {
+        INSERT.update(guild, ScheduleInfoCodec.encode(scheduleInfo));
+    }
+
+    public static void deleteSnapshot(long guild) {
+        DELETE.update(guild);
+    }
+}
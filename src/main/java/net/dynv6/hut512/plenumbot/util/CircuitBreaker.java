@@ -0,0 +1,107 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.util;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts consecutive failures per key and opens once {@code threshold} of them happened in a row. While open, calls
+ * are rejected until the backoff, which doubles with every further failure, has passed. Then a single trial call is
+ * let through, whose result either closes the circuit again or reopens it.
+ */
+public class CircuitBreaker<K> {
+    private final int threshold;
+    private final Map<K, State> states;
+
+    public CircuitBreaker(int threshold) {
+        this.threshold = threshold;
+        this.states = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Whether a call may be made. Every permitted call must be followed by {@link #recordSuccess} or
+     * {@link #recordFailure}, otherwise an open circuit never lets another trial through.
+     */
+    public boolean tryAcquire(K key, Instant now) {
+        State state = states.get(key);
+        if (state == null) return true;
+
+        synchronized (state) {
+            if (state.failures < threshold) return true;
+            if (now.isBefore(state.retryAt) || state.trial) return false;
+            state.trial = true;
+            return true;
+        }
+    }
+
+    /**
+     * Returns when the next call is permitted, or null if the circuit is closed.
+     */
+    @Nullable
+    public Instant getRetryAt(K key) {
+        State state = states.get(key);
+        if (state == null) return null;
+
+        synchronized (state) {
+            return state.failures < threshold ? null : state.retryAt;
+        }
+    }
+
+    public void recordSuccess(K key) {
+        states.remove(key);
+    }
+
+    /**
+     * Returns when the next call is permitted, which is {@code now} as long as the circuit stays closed.
+     */
+    public Instant recordFailure(K key, Duration baseBackoff, Duration maxBackoff, Instant now) {
+        State state = states.computeIfAbsent(key, k -> new State());
+
+        synchronized (state) {
+            state.failures++;
+            state.trial = false;
+            if (state.failures < threshold) {
+                state.retryAt = now;
+            } else {
+                // Capped before shifting, so a long series of failures can't overflow
+                int doublings = Math.min(state.failures - threshold, 30);
+                Duration backoff = baseBackoff.multipliedBy(1L << doublings);
+                state.retryAt = now.plus(backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff);
+            }
+            return state.retryAt;
+        }
+    }
+
+    public void retainAll(Collection<K> keys) {
+        states.keySet().retainAll(keys);
+    }
+
+    private static class State {
+        private int failures;
+        private Instant retryAt;
+        private boolean trial;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is a part of the PlenumBot software.
+ *
+ * Copyright (c) 2023  Hut512
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.dynv6.hut512.plenumbot.util;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces concurrent calls with the same key into a single execution. Every caller receives the same
+ * future, and a successful result is handed out again until it is older than the retention period. Failures are
+ * dropped as soon as they completed, so the next call tries again.
+ */
+public class SingleFlight<K, V> {
+    private final Map<K, Call<V>> calls;
+    private final long retentionNanos;
+    private volatile long nextPurge;
+
+    public SingleFlight(Duration retention) {
+        this.calls = new ConcurrentHashMap<>();
+        this.retentionNanos = retention.toNanos();
+        this.nextPurge = System.nanoTime() + retentionNanos;
+    }
+
+    public CompletableFuture<V> execute(K key, Callable<V> loader) {
+        long now = System.nanoTime();
+        purgeExpired(now);
+
+        Call<V> newCall = new Call<>();
+        Call<V> call = calls.compute(key, (k, current) -> current == null || current.isExpired(now, retentionNanos) ? newCall : current);
+        if (call != newCall) return call.future;
+
+        boolean failed = false;
+        try {
+            newCall.complete(loader.call(), null);
+        } catch (Throwable e) {
+            newCall.complete(null, e);
+            failed = true;
+        }
+
+        if (failed || retentionNanos <= 0) calls.remove(key, newCall);
+        return newCall.future;
+    }
+
+    public void invalidate(K key) {
+        calls.computeIfPresent(key, (k, current) -> current.future.isDone() ? null : current);
+    }
+
+    private void purgeExpired(long now) {
+        if (now - nextPurge < 0) return;
+        nextPurge = now + retentionNanos;
+        calls.values().removeIf(call -> call.isExpired(now, retentionNanos));
+    }
+
+    private static class Call<V> {
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        private volatile long completedAt;
+
+        private void complete(V value, Throwable e) {
+            completedAt = System.nanoTime();
+            if (e == null)
+                future.complete(value);
+            else
+                future.completeExceptionally(e);
+        }
+
+        private boolean isExpired(long now, long retentionNanos) {
+            return future.isDone() && now - completedAt > retentionNanos;
+        }
+    }
+}